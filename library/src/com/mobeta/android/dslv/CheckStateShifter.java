@@ -0,0 +1,285 @@
+package com.mobeta.android.dslv;
+
+import android.util.SparseBooleanArray;
+
+/**
+ * Moves entries of a ListView check state array (position to
+ * checked) along with a moved or removed item. Only keys inside
+ * the affected range are rewritten.
+ *
+ * Moving an item from A to B is a rotation of the range [A, B].
+ * Let's say we have
+ * <pre>
+ * . . U V X Y Z . .
+ * </pre>
+ * and move U after Z. This is equivalent to a rotation one step to
+ * the left within the range you are moving across:
+ * <pre>
+ * . . V X Y Z U . .
+ * </pre>
+ * Removing an item is the same as moving it to the end of the list
+ * while unchecked.
+ *
+ * A range holding few entries is rotated by its runs of checked
+ * items: to rotate a run, regardless of length, we only need to set
+ * a check mark at one end of the run and clear the one at the other
+ * end. For example, in the range
+ * <pre>
+ * X X . X X X . X
+ * </pre>
+ * we have two runs. One begins at the last item and wraps around
+ * to the beginning, ending at position 1. The second begins at
+ * position 3 and ends at position 5. Rotated left:
+ * <pre>
+ * X . X X X . X X
+ * </pre>
+ * Each of those writes is a binary search plus an array shift, so
+ * a range holding many entries is instead rewritten in one ordered
+ * pass over the array. Which path to take is decided from the
+ * number of entries in the range, before any runs are built.
+ */
+class CheckStateShifter {
+
+    /**
+     * Ranges holding more entries than this are rewritten in one
+     * pass. Runs never outnumber entries, so below it the run path
+     * does at most 2 * sMaxRunEntries writes. See
+     * CheckStateShifterBenchmark.
+     */
+    static final int sMaxRunEntries = 16;
+
+    private int[] mRunStart = new int[0];
+    private int[] mRunEnd = new int[0];
+    private int[] mKeys = new int[0];
+    private boolean[] mValues = new boolean[0];
+
+    /**
+     * Move the check state of the item at <code>from</code> to
+     * <code>to</code>, shifting the items in between.
+     */
+    public void move(SparseBooleanArray cip, int from, int to) {
+        if (from == to || cip.size() == 0) {
+            return;
+        }
+        final int rangeStart = Math.min(from, to);
+        final int rangeEnd = Math.max(from, to) + 1;
+        final int offset = from < to ? -1 : 1;
+
+        final int entries = insertionIndexForKey(cip, rangeEnd)
+                - insertionIndexForKey(cip, rangeStart);
+        if (entries > sMaxRunEntries) {
+            rewrite(cip, rangeStart, rangeEnd, offset);
+        } else {
+            rotateRuns(cip, rangeStart, rangeEnd, offset);
+        }
+    }
+
+    /**
+     * Drop the check state of the item at <code>position</code> and
+     * shift all later items up one step. The item must not be
+     * checked (it may have an unchecked entry).
+     */
+    public void remove(SparseBooleanArray cip, int position) {
+        final int size = cip.size();
+        if (size == 0) {
+            return;
+        }
+        final int entries = size - insertionIndexForKey(cip, position);
+        if (entries > sMaxRunEntries) {
+            rewrite(cip, position, Integer.MAX_VALUE, 0);
+        } else if (entries > 0) {
+            // the unchecked item rotates to the end of the range
+            rotateRuns(cip, position, cip.keyAt(size - 1) + 1, -1);
+        }
+    }
+
+    /**
+     * Rotate [rangeStart, rangeEnd) one step by moving the runs of
+     * checked items in it.
+     *
+     * @param offset -1 to rotate left, 1 to rotate right.
+     */
+    void rotateRuns(SparseBooleanArray cip, int rangeStart, int rangeEnd, int offset) {
+        ensureRunCapacity(cip.size());
+        final int[] runStart = mRunStart;
+        final int[] runEnd = mRunEnd;
+        final int runCount = buildRunList(cip, rangeStart, rangeEnd, runStart, runEnd);
+        if (runCount == 0 || (runCount == 1 && (runStart[0] == runEnd[0]))) {
+            // Nothing checked in range, or the special case where all items
+            // are checked; we can never set any item to false like we do
+            // below.
+            return;
+        }
+
+        if (offset < 0) {
+            for (int i = 0; i != runCount; i++) {
+                cip.put(rotate(runStart[i], -1, rangeStart, rangeEnd), true);
+                cip.delete(rotate(runEnd[i], -1, rangeStart, rangeEnd));
+            }
+        } else {
+            for (int i = 0; i != runCount; i++) {
+                cip.delete(runStart[i]);
+                cip.put(runEnd[i], true);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the check state array in one ordered pass: copy it
+     * out, clear it, and append the entries back with their new
+     * positions. Appending in key order is O(1) each, so this is
+     * linear in the number of entries.
+     *
+     * @param offset -1 or 1 to rotate keys in [rangeStart, rangeEnd)
+     * one step left or right; 0 to delete key rangeStart and shift
+     * all later keys down by one.
+     */
+    void rewrite(SparseBooleanArray cip, int rangeStart, int rangeEnd, int offset) {
+        final int size = cip.size();
+        if (mKeys.length < size) {
+            final int capacity = Math.max(size, 2 * mKeys.length);
+            mKeys = new int[capacity];
+            mValues = new boolean[capacity];
+        }
+        final int[] keys = mKeys;
+        final boolean[] values = mValues;
+
+        for (int i = 0; i < size; i++) {
+            keys[i] = cip.keyAt(i);
+            values[i] = cip.valueAt(i);
+        }
+        final int lo = insertionIndexForKey(cip, rangeStart);
+        final int hi = rangeEnd == Integer.MAX_VALUE ? size : insertionIndexForKey(cip, rangeEnd);
+        cip.clear();
+
+        for (int i = 0; i < lo; i++) {
+            cip.append(keys[i], values[i]);
+        }
+
+        if (offset == 0) {
+            int i = lo;
+            if (i < hi && keys[i] == rangeStart) {
+                i++;
+            }
+            for (; i < hi; i++) {
+                cip.append(keys[i] - 1, values[i]);
+            }
+        } else if (offset < 0) {
+            // rangeStart wraps around to the end of the range
+            final boolean wrap = lo < hi && keys[lo] == rangeStart;
+            for (int i = wrap ? lo + 1 : lo; i < hi; i++) {
+                cip.append(keys[i] - 1, values[i]);
+            }
+            if (wrap) {
+                cip.append(rangeEnd - 1, values[lo]);
+            }
+        } else {
+            // rangeEnd - 1 wraps around to the start of the range
+            final boolean wrap = lo < hi && keys[hi - 1] == rangeEnd - 1;
+            if (wrap) {
+                cip.append(rangeStart, values[hi - 1]);
+            }
+            for (int i = lo, end = wrap ? hi - 1 : hi; i < end; i++) {
+                cip.append(keys[i] + 1, values[i]);
+            }
+        }
+
+        for (int i = hi; i < size; i++) {
+            cip.append(keys[i], values[i]);
+        }
+    }
+
+    private void ensureRunCapacity(int size) {
+        if (mRunStart.length < size) {
+            final int capacity = Math.max(size, 2 * mRunStart.length);
+            mRunStart = new int[capacity];
+            mRunEnd = new int[capacity];
+        }
+    }
+
+    private static int buildRunList(SparseBooleanArray cip, int rangeStart, int rangeEnd, 
+            int[] runStart, int[] runEnd) {
+        
+        int runCount = 0;
+
+        int i = findFirstSetIndex(cip, rangeStart, rangeEnd);
+        if (i == -1)
+            return 0;
+
+        int position = cip.keyAt(i);
+        int currentRunStart = position;
+        int currentRunEnd = currentRunStart + 1;
+        for (i++; i < cip.size() && (position = cip.keyAt(i)) < rangeEnd; i++) {
+            if (!cip.valueAt(i)) // not checked => not interesting
+                continue;
+            if (position == currentRunEnd) {
+                currentRunEnd++;
+            } else {
+                runStart[runCount] = currentRunStart;
+                runEnd[runCount] = currentRunEnd;
+                runCount++;
+                currentRunStart = position;
+                currentRunEnd = position + 1;
+            }
+        }
+
+        if (currentRunEnd == rangeEnd) {
+            // rangeStart and rangeEnd are equivalent positions so to be
+            // consistent we translate them to the same integer value. That way
+            // we can check whether a run covers the entire range by just
+            // checking if the start equals the end position.
+            currentRunEnd = rangeStart;
+        }
+        runStart[runCount] = currentRunStart;
+        runEnd[runCount] = currentRunEnd;
+        runCount++;
+
+        if (runCount > 1) {
+            if (runStart[0] == rangeStart && runEnd[runCount - 1] == rangeStart) {
+                // The last run ends at the end of the range, and the first run
+                // starts at the beginning of the range. So they are actually
+                // part of the same run, except they wrap around the end of the
+                // range. To avoid adjacent runs, we need to merge them.
+                runStart[0] = runStart[runCount - 1];
+                runCount--;
+            }
+        }
+        return runCount;
+    }
+
+    private static int rotate(int value, int offset, int lowerBound, int upperBound) {
+        int windowSize = upperBound - lowerBound;
+
+        value += offset;
+        if (value < lowerBound) {
+            value += windowSize;
+        } else if (value >= upperBound) {
+            value -= windowSize;
+        }
+        return value;
+    }
+
+    private static int findFirstSetIndex(SparseBooleanArray sba, int rangeStart, int rangeEnd) {
+        int size = sba.size();
+        int i = insertionIndexForKey(sba, rangeStart);
+        while (i < size && sba.keyAt(i) < rangeEnd && !sba.valueAt(i))
+            i++;
+        if (i == size || sba.keyAt(i) >= rangeEnd)
+            return -1;
+        return i;
+    }
+
+    private static int insertionIndexForKey(SparseBooleanArray sba, int key) {
+        int low = 0;
+        int high = sba.size();
+        while (high - low > 0) {
+            int middle = (low + high) >> 1;
+            if (sba.keyAt(middle) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+}
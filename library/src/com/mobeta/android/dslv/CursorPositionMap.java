@@ -0,0 +1,498 @@
+package com.mobeta.android.dslv;
+
+import java.util.Arrays;
+
+/**
+ * Mapping from list positions to Cursor positions under a sequence
+ * of moves and removals. The list is stored as runs of consecutive
+ * Cursor positions, so untouched stretches of the Cursor cost one
+ * run no matter how long they are.
+ *
+ * Runs are the nodes of an implicit treap (a randomized balanced
+ * tree keyed by list position, where each node also keeps the
+ * number of list positions in its subtree). Lookup, move and
+ * removal are O(log r) expected for r runs. Adjacent runs that
+ * continue each other are fused, so undoing a move collapses the
+ * map back to a single run.
+ *
+ * Nodes live in parallel arrays; a Cursor position that is not in
+ * any run has been removed, which is also recorded in a bitset.
+ * For the inverse lookup, the runs are copied out sorted by Cursor
+ * position the first time it is needed after an edit; lookups are
+ * then a binary search. So the first {@link #indexOf(int)} after an
+ * edit is O(r log r), and later ones O(log r) until the next edit.
+ */
+class CursorPositionMap {
+
+    private static final int NIL = -1;
+
+    private int[] mStart;
+    private int[] mLength;
+    private int[] mSize;
+    private int[] mPriority;
+    private int[] mLeft;
+    private int[] mRight;
+
+    /**
+     * Free nodes are chained through mLeft.
+     */
+    private int mFree = NIL;
+    private int mNodeCount = 0;
+    private int mRunCount = 0;
+
+    private int mRoot;
+
+    private int mCursorCount;
+
+    /**
+     * Bit i is set if Cursor position i was removed.
+     */
+    private long[] mRemoved;
+
+    /**
+     * Runs sorted by Cursor position: first Cursor position and
+     * first list position of each run. Rebuilt on demand when
+     * mInverseValid is false.
+     */
+    private int[] mInverseCursorStart = new int[0];
+    private int[] mInverseListStart = new int[0];
+    private long[] mInverseKeys = new long[0];
+    private boolean mInverseValid = false;
+
+    /**
+     * Halves of the last {@link #split(int, int)}.
+     */
+    private int mSplitLeft;
+    private int mSplitRight;
+
+    private int mSeed = 0x2545F491;
+
+    /**
+     * Scratch state for the in-order walks.
+     */
+    private int mWalkPosition;
+    private int mWalkRun;
+
+    /**
+     * @param cursorCount Number of rows in the Cursor. The map
+     * starts as the identity.
+     */
+    public CursorPositionMap(int cursorCount) {
+        mStart = new int[8];
+        mLength = new int[8];
+        mSize = new int[8];
+        mPriority = new int[8];
+        mLeft = new int[8];
+        mRight = new int[8];
+
+        mCursorCount = cursorCount;
+        mRemoved = new long[(Math.max(0, cursorCount) + 63) >> 6];
+        mRoot = cursorCount > 0 ? newNode(0, cursorCount) : NIL;
+    }
+
+    /**
+     * @return Number of list positions, i.e. Cursor rows not
+     * removed.
+     */
+    public int size() {
+        return size(mRoot);
+    }
+
+    public int getRemovedCount() {
+        return mCursorCount - size(mRoot);
+    }
+
+    /**
+     * @return True if no row has been moved or removed.
+     */
+    public boolean isIdentity() {
+        return size(mRoot) == mCursorCount
+                && (mRoot == NIL || (mLeft[mRoot] == NIL && mRight[mRoot] == NIL
+                        && mStart[mRoot] == 0));
+    }
+
+    /**
+     * @return The Cursor position at list <code>position</code>.
+     * Positions past the end of the list map to themselves.
+     */
+    public int get(int position) {
+        if (position < 0 || position >= size(mRoot)) {
+            return position;
+        }
+        int t = mRoot;
+        while (true) {
+            final int leftSize = size(mLeft[t]);
+            if (position < leftSize) {
+                t = mLeft[t];
+            } else if (position < leftSize + mLength[t]) {
+                return mStart[t] + position - leftSize;
+            } else {
+                position -= leftSize + mLength[t];
+                t = mRight[t];
+            }
+        }
+    }
+
+    /**
+     * Move the row at list position <code>from</code> to list
+     * position <code>to</code>.
+     */
+    public void move(int from, int to) {
+        final int count = size(mRoot);
+        if (from == to || from < 0 || from >= count || to < 0 || to >= count) {
+            return;
+        }
+        final int cursorPosition = cut(from);
+
+        split(mRoot, to);
+        final int right = mSplitRight;
+        mRoot = join(join(mSplitLeft, newNode(cursorPosition, 1)), right);
+        mInverseValid = false;
+    }
+
+    /**
+     * Remove the row at list position <code>position</code>.
+     *
+     * @return The Cursor position of the removed row, or -1 if
+     * <code>position</code> is out of range.
+     */
+    public int remove(int position) {
+        if (position < 0 || position >= size(mRoot)) {
+            return -1;
+        }
+        final int cursorPosition = cut(position);
+        mRemoved[cursorPosition >> 6] |= 1L << cursorPosition;
+        mInverseValid = false;
+        return cursorPosition;
+    }
+
+    /**
+     * @return True if the row at the given Cursor position was
+     * removed.
+     */
+    public boolean isRemoved(int cursorPosition) {
+        return cursorPosition >= 0 && cursorPosition < mCursorCount
+                && (mRemoved[cursorPosition >> 6] & (1L << cursorPosition)) != 0;
+    }
+
+    /**
+     * @return The list position of the given Cursor position, -1 if
+     * the row was removed. Cursor positions not known to the map
+     * map to themselves.
+     *
+     * O(log r) once the inverse runs are built; building them after
+     * an edit is O(r log r).
+     */
+    public int indexOf(int cursorPosition) {
+        if (cursorPosition < 0 || cursorPosition >= mCursorCount) {
+            return cursorPosition;
+        }
+        if (isRemoved(cursorPosition)) {
+            return -1;
+        }
+        ensureInverse();
+
+        // last run starting at or before cursorPosition
+        int low = 0;
+        int high = mRunCount - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (mInverseCursorStart[middle] <= cursorPosition) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return mInverseListStart[low] + cursorPosition - mInverseCursorStart[low];
+    }
+
+    /**
+     * Write the Cursor position of each list position into
+     * <code>dest</code>, up to its length.
+     */
+    public void toArray(int[] dest) {
+        mWalkPosition = 0;
+        toArray(mRoot, dest);
+    }
+
+    /**
+     * Pass each run to <code>visitor</code> in list order.
+     *
+     * @param changedOnly Skip runs whose rows are at their Cursor
+     * positions.
+     */
+    public void visitRuns(DragSortCursorAdapter.CursorRunVisitor visitor, boolean changedOnly) {
+        mWalkPosition = 0;
+        visitRuns(mRoot, visitor, changedOnly);
+    }
+
+    /**
+     * Patience sorting with back links, O(n log n).
+     *
+     * @return Flags marking one longest strictly increasing
+     * subsequence of <code>values</code>.
+     */
+    static boolean[] markLongestIncreasing(int[] values) {
+        final int n = values.length;
+
+        // tails[k] is the index of the smallest value ending an
+        // increasing subsequence of length k + 1
+        final int[] tails = new int[n];
+        final int[] prev = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            prev[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        final boolean[] marked = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i != -1; i = prev[i]) {
+            marked[i] = true;
+        }
+        return marked;
+    }
+
+    private void visitRuns(int t, DragSortCursorAdapter.CursorRunVisitor visitor,
+            boolean changedOnly) {
+        if (t == NIL) {
+            return;
+        }
+        visitRuns(mLeft[t], visitor, changedOnly);
+        final int listStart = mWalkPosition;
+        final int cursorStart = mStart[t];
+        final int length = mLength[t];
+        if (!changedOnly || listStart != cursorStart) {
+            visitor.visitRun(listStart, cursorStart, length);
+        }
+        // the visitor may have done a lookup that reuses mWalkPosition
+        mWalkPosition = listStart + length;
+        visitRuns(mRight[t], visitor, changedOnly);
+    }
+
+    private void ensureInverse() {
+        if (mInverseValid) {
+            return;
+        }
+        final int runs = mRunCount;
+        if (mInverseKeys.length < runs) {
+            final int capacity = Math.max(runs, 2 * mInverseKeys.length);
+            mInverseCursorStart = new int[capacity];
+            mInverseListStart = new int[capacity];
+            mInverseKeys = new long[capacity];
+        }
+
+        // sort runs by Cursor position as packed
+        // (Cursor start, list start) keys; both are non-negative
+        final long[] keys = mInverseKeys;
+        mWalkPosition = 0;
+        mWalkRun = 0;
+        collectRuns(mRoot);
+        Arrays.sort(keys, 0, runs);
+
+        for (int i = 0; i < runs; i++) {
+            mInverseCursorStart[i] = (int) (keys[i] >>> 32);
+            mInverseListStart[i] = (int) keys[i];
+        }
+        mInverseValid = true;
+    }
+
+    private void collectRuns(int t) {
+        if (t == NIL) {
+            return;
+        }
+        collectRuns(mLeft[t]);
+        mInverseKeys[mWalkRun++] = ((long) mStart[t] << 32) | mWalkPosition;
+        mWalkPosition += mLength[t];
+        collectRuns(mRight[t]);
+    }
+
+    private void toArray(int t, int[] dest) {
+        if (t == NIL) {
+            return;
+        }
+        toArray(mLeft[t], dest);
+        final int start = mStart[t];
+        final int end = Math.min(dest.length, mWalkPosition + mLength[t]);
+        for (int i = 0; mWalkPosition < end; i++) {
+            dest[mWalkPosition++] = start + i;
+        }
+        toArray(mRight[t], dest);
+    }
+
+    /**
+     * Take the row at list position <code>position</code> out of the
+     * treap.
+     *
+     * @return Its Cursor position.
+     */
+    private int cut(int position) {
+        split(mRoot, position);
+        final int left = mSplitLeft;
+        split(mSplitRight, 1);
+        final int node = mSplitLeft;
+        final int right = mSplitRight;
+
+        final int cursorPosition = mStart[node];
+        freeNode(node);
+        mRoot = join(left, right);
+        return cursorPosition;
+    }
+
+    private int size(int t) {
+        return t == NIL ? 0 : mSize[t];
+    }
+
+    private void update(int t) {
+        mSize[t] = size(mLeft[t]) + mLength[t] + size(mRight[t]);
+    }
+
+    /**
+     * Split treap <code>t</code> into its first <code>k</code> list
+     * positions (mSplitLeft) and the rest (mSplitRight), cutting a
+     * run in two if needed.
+     */
+    private void split(int t, int k) {
+        if (t == NIL) {
+            mSplitLeft = NIL;
+            mSplitRight = NIL;
+            return;
+        }
+        final int leftSize = size(mLeft[t]);
+        if (k <= leftSize) {
+            split(mLeft[t], k);
+            mLeft[t] = mSplitRight;
+            update(t);
+            mSplitRight = t;
+        } else if (k >= leftSize + mLength[t]) {
+            split(mRight[t], k - leftSize - mLength[t]);
+            mRight[t] = mSplitLeft;
+            update(t);
+            mSplitLeft = t;
+        } else {
+            final int offset = k - leftSize;
+            final int tail = newNode(mStart[t] + offset, mLength[t] - offset);
+            final int right = mRight[t];
+            mLength[t] = offset;
+            mRight[t] = NIL;
+            update(t);
+            mSplitLeft = t;
+            mSplitRight = merge(tail, right);
+        }
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (mPriority[a] > mPriority[b]) {
+            mRight[a] = merge(mRight[a], b);
+            update(a);
+            return a;
+        } else {
+            mLeft[b] = merge(a, mLeft[b]);
+            update(b);
+            return b;
+        }
+    }
+
+    /**
+     * Merge, fusing the last run of <code>a</code> with the first
+     * run of <code>b</code> if it continues it.
+     */
+    private int join(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        int last = a;
+        while (mRight[last] != NIL) {
+            last = mRight[last];
+        }
+        int first = b;
+        while (mLeft[first] != NIL) {
+            first = mLeft[first];
+        }
+
+        if (mStart[last] + mLength[last] == mStart[first]) {
+            final int length = mLength[first];
+            split(b, length);
+            freeNode(mSplitLeft);
+            b = mSplitRight;
+
+            mLength[last] += length;
+            for (int t = a; t != NIL; t = mRight[t]) {
+                mSize[t] += length;
+            }
+        }
+        return merge(a, b);
+    }
+
+    private int newNode(int start, int length) {
+        int t = mFree;
+        if (t != NIL) {
+            mFree = mLeft[t];
+        } else {
+            if (mNodeCount == mStart.length) {
+                grow();
+            }
+            t = mNodeCount++;
+        }
+        mRunCount++;
+        mStart[t] = start;
+        mLength[t] = length;
+        mSize[t] = length;
+        mLeft[t] = NIL;
+        mRight[t] = NIL;
+
+        // xorshift
+        int x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mSeed = x;
+        mPriority[t] = x;
+        return t;
+    }
+
+    private void freeNode(int t) {
+        mRunCount--;
+        mLeft[t] = mFree;
+        mFree = t;
+    }
+
+    private void grow() {
+        final int capacity = 2 * mStart.length;
+        mStart = copyOf(mStart, capacity);
+        mLength = copyOf(mLength, capacity);
+        mSize = copyOf(mSize, capacity);
+        mPriority = copyOf(mPriority, capacity);
+        mLeft = copyOf(mLeft, capacity);
+        mRight = copyOf(mRight, capacity);
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        // Arrays.copyOf is API 9
+        final int[] b = new int[length];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+}
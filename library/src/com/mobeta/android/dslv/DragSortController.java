@@ -82,6 +82,21 @@ public class DragSortController extends SimpleFloatViewManager implements View.O
     private DragSortListView mDslv;
     private int mPositionX;
 
+    /**
+     * Float View snapshot mode enum.
+     */
+    public static final int SNAPSHOT_BITMAP = 0;
+    public static final int SNAPSHOT_PICTURE = 1;
+
+    private int mSnapshotMode = SNAPSHOT_BITMAP;
+
+    private PictureFloatViewManager mPictureManager;
+
+    /**
+     * True if the current floating View came from mPictureManager.
+     */
+    private boolean mPictureFloatView = false;
+
     /**
      * Calls {@link #DragSortController(DragSortListView, int)} with a
      * 0 drag handle id, FLING_RIGHT_REMOVE remove mode,
@@ -118,6 +133,7 @@ public class DragSortController extends SimpleFloatViewManager implements View.O
 
         super(dslv);
         mDslv = dslv;
+        mPictureManager = new PictureFloatViewManager(dslv);
         mDetector = new GestureDetector(dslv.getContext(), this);
         mFlingRemoveDetector = new GestureDetector(dslv.getContext(), mFlingRemoveListener);
         mFlingRemoveDetector.setIsLongpressEnabled(false);
@@ -274,6 +290,48 @@ public class DragSortController extends SimpleFloatViewManager implements View.O
         return false;
     }
 
+    /**
+     * Choose how the floating View is made from the dragged item.
+     * {@link #SNAPSHOT_BITMAP} (default) copies the item into a
+     * Bitmap (see {@link SimpleFloatViewManager});
+     * {@link #SNAPSHOT_PICTURE} records it into a Picture (see
+     * {@link PictureFloatViewManager}). Where the list cannot replay
+     * a Picture, SNAPSHOT_PICTURE falls back to the Bitmap snapshot
+     * with this controller's Bitmap settings.
+     */
+    public void setSnapshotMode(int mode) {
+        mSnapshotMode = mode;
+    }
+
+    public int getSnapshotMode() {
+        return mSnapshotMode;
+    }
+
+    @Override
+    public void setBackgroundColor(int color) {
+        super.setBackgroundColor(color);
+        mPictureManager.setBackgroundColor(color);
+    }
+
+    @Override
+    public View onCreateFloatView(int position) {
+        mPictureFloatView = mSnapshotMode == SNAPSHOT_PICTURE
+                && mPictureManager.canReplay();
+        if (mPictureFloatView) {
+            return mPictureManager.onCreateFloatView(position);
+        }
+        return super.onCreateFloatView(position);
+    }
+
+    @Override
+    public void onDestroyFloatView(View floatView) {
+        if (mPictureFloatView) {
+            mPictureManager.onDestroyFloatView(floatView);
+        } else {
+            super.onDestroyFloatView(floatView);
+        }
+    }
+
     /**
      * Overrides to provide fading when slide removal is enabled.
      */
@@ -3,10 +3,12 @@ package com.mobeta.android.dslv;
 import java.util.ArrayList;
 import java.util.List;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
 import android.support.v4.widget.CursorAdapter;
-import android.util.SparseIntArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ListAdapter;
@@ -19,7 +21,11 @@ import android.widget.ListAdapter;
  * list positions into Cursor positions (the Cursor is unchanged).
  * To persist changes made by drag-sorts, one can retrieve the
  * mapping with the {@link #getCursorPositions()} method, which
- * returns the reordered list of Cursor positions.
+ * returns the reordered list of Cursor positions. For large
+ * Cursors, {@link #fillCursorPositions(int[])} and
+ * {@link #visitChangedCursorRuns(CursorRunVisitor)} do the same
+ * without boxing, the latter in time proportional to the number
+ * of edits.
  *
  * An instance of this class is passed
  * to {@link DragSortListView#setAdapter(ListAdapter)} and, since
@@ -33,11 +39,10 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
     private static final int REMOVED = -1;
 
     /**
-     * Key is ListView position, value is Cursor position
+     * Maps ListView positions to Cursor positions. Null until the
+     * first drop or remove, and whenever the mapping is the identity.
      */
-    private SparseIntArray mListMapping = new SparseIntArray();
-
-    private List<Integer> mRemovedCursorPositions = new ArrayList<Integer>();
+    private CursorPositionMap mListMapping;
     
     @Deprecated
     public DragSortCursorAdapter(Context context, Cursor c) {
@@ -73,28 +78,34 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
     }
 
     private void resetMappings() {
-        mListMapping.clear();
-        mRemovedCursorPositions.clear();
+        mListMapping = null;
+    }
+
+    private CursorPositionMap ensureMapping() {
+        if (mListMapping == null) {
+            mListMapping = new CursorPositionMap(super.getCount());
+        }
+        return mListMapping;
     }
 
     @Override
     public Object getItem(int position) {
-        return super.getItem(mListMapping.get(position, position));
+        return super.getItem(getCursorPosition(position));
     }
 
     @Override
     public long getItemId(int position) {
-        return super.getItemId(mListMapping.get(position, position));
+        return super.getItemId(getCursorPosition(position));
     }
 
     @Override
     public View getDropDownView(int position, View convertView, ViewGroup parent) {
-        return super.getDropDownView(mListMapping.get(position, position), convertView, parent);
+        return super.getDropDownView(getCursorPosition(position), convertView, parent);
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        return super.getView(mListMapping.get(position, position), convertView, parent);
+        return super.getView(getCursorPosition(position), convertView, parent);
     }
 
     /**
@@ -107,20 +118,9 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
     @Override
     public void drop(int from, int to) {
         if (from != to) {
-            int cursorFrom = mListMapping.get(from, from);
-
-            if (from > to) {
-                for (int i = from; i > to; i--) {
-                    mListMapping.put(i, mListMapping.get(i - 1, i - 1));
-                }
-            } else {
-                for (int i = from; i < to; i++) {
-                    mListMapping.put(i, mListMapping.get(i + 1, i + 1));
-                }
-            }
-            mListMapping.put(to, cursorFrom);
+            ensureMapping().move(from, to);
 
-            cleanMapping();        
+            cleanMapping();
             notifyDataSetChanged();
         }
     }
@@ -134,17 +134,7 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
      */
     @Override
     public void remove(int which) {
-        int cursorPos = mListMapping.get(which, which);
-        if (!mRemovedCursorPositions.contains(cursorPos)) {
-            mRemovedCursorPositions.add(cursorPos);
-        }
-
-        int newCount = getCount();
-        for (int i = which; i < newCount; i++) {
-            mListMapping.put(i, mListMapping.get(i + 1, i + 1));
-        }
-
-        mListMapping.delete(newCount);
+        ensureMapping().remove(which);
 
         cleanMapping();
         notifyDataSetChanged();
@@ -159,26 +149,20 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
     }
 
     /**
-     * Remove unnecessary mappings from sparse array.
+     * Drop the mapping if drag-sorts have restored the Cursor order.
      */
     private void cleanMapping() {
-        List<Integer> toRemove = new ArrayList<Integer>();
-
-        final int size = mListMapping.size();
-        for (int i = 0; i < size; i++) {
-            if (mListMapping.keyAt(i) == mListMapping.valueAt(i)) {
-                toRemove.add(mListMapping.keyAt(i));
-            }
-        }
-
-        for (int position : toRemove) {
-        	mListMapping.delete(position);
+        if (mListMapping != null && mListMapping.isIdentity()) {
+            mListMapping = null;
         }
     }
 
     @Override
     public int getCount() {
-        return super.getCount() - mRemovedCursorPositions.size();
+        if (mListMapping == null) {
+            return super.getCount();
+        }
+        return super.getCount() - mListMapping.getRemovedCount();
     }
 
     /**
@@ -191,42 +175,244 @@ public abstract class DragSortCursorAdapter extends CursorAdapter implements
      * @return The mapped-to Cursor position
      */
     public int getCursorPosition(int position) {
-        return mListMapping.get(position, position);
+        if (mListMapping == null) {
+            return position;
+        }
+        return mListMapping.get(position);
     }
 
     /**
      * Get the current order of Cursor positions presented by the
      * list.
+     *
+     * @see #fillCursorPositions(int[])
      */
     public List<Integer> getCursorPositions() {
-        List<Integer> result = new ArrayList<Integer>();
+        final int[] positions = new int[getCount()];
+        fillCursorPositions(positions);
+
+        List<Integer> result = new ArrayList<Integer>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            result.add(positions[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Like {@link #getCursorPositions()}, but writes the Cursor
+     * positions into an array, without boxing.
+     *
+     * @param positions Array with room for at least
+     * {@link #getCount()} entries. Entry i is set to the Cursor
+     * position at list position i.
+     *
+     * @return The number of entries written, i.e. {@link #getCount()}.
+     */
+    public int fillCursorPositions(int[] positions) {
+        final int count = getCount();
+        if (positions.length < count) {
+            throw new IllegalArgumentException("Array of length " + positions.length
+                    + " cannot hold " + count + " positions");
+        }
+
+        int mapped = 0;
+        if (mListMapping != null) {
+            mapped = Math.min(count, mListMapping.size());
+            mListMapping.toArray(positions);
+        }
+        for (int i = mapped; i < count; i++) {
+            positions[i] = i;
+        }
+        return count;
+    }
+
+    /**
+     * Receives the list order as runs of consecutive Cursor
+     * positions. See {@link #visitCursorRuns(CursorRunVisitor)}.
+     */
+    public interface CursorRunVisitor {
+        /**
+         * List positions <code>listStart</code> through
+         * <code>listStart + length - 1</code> show Cursor positions
+         * <code>cursorStart</code> through
+         * <code>cursorStart + length - 1</code>.
+         */
+        public void visitRun(int listStart, int cursorStart, int length);
+    }
+
+    /**
+     * Walk the current list order as runs, in list order. The
+     * number of runs grows with the number of drag-sort operations,
+     * not with the size of the Cursor.
+     */
+    public void visitCursorRuns(CursorRunVisitor visitor) {
+        visitCursorRuns(visitor, false);
+    }
+
+    /**
+     * Like {@link #visitCursorRuns(CursorRunVisitor)}, but skips runs
+     * whose rows are still at their Cursor positions. Removed rows
+     * are not visited; see {@link #getListPosition(int)}.
+     */
+    public void visitChangedCursorRuns(CursorRunVisitor visitor) {
+        visitCursorRuns(visitor, true);
+    }
 
-        for (int i = 0; i < getCount(); i++) {
-            result.add(mListMapping.get(i, i));
+    private void visitCursorRuns(CursorRunVisitor visitor, boolean changedOnly) {
+        final int count = getCount();
+        int mapped = 0;
+        if (mListMapping != null) {
+            mapped = mListMapping.size();
+            mListMapping.visitRuns(visitor, changedOnly);
         }
+        if (!changedOnly && mapped < count) {
+            // rows the mapping does not cover map to themselves
+            visitor.visitRun(mapped, mapped, count - mapped);
+        }
+    }
 
+    /**
+     * Get the list positions of a smallest set of rows that explains
+     * the current order: the rows outside a longest increasing
+     * subsequence of the Cursor positions. All other rows are still
+     * in Cursor order relative to each other, so persisting the new
+     * order only needs to touch the returned rows. Removed rows are
+     * not included.
+     *
+     * Runs in O(n log n) for n list items.
+     *
+     * @return List positions in ascending order.
+     */
+    public int[] getMovedListPositions() {
+        if (mListMapping == null) {
+            return new int[0];
+        }
+        final int[] positions = new int[getCount()];
+        fillCursorPositions(positions);
+        final boolean[] stays = CursorPositionMap.markLongestIncreasing(positions);
+
+        int moved = 0;
+        for (int i = 0; i < stays.length; i++) {
+            if (!stays[i]) {
+                moved++;
+            }
+        }
+        final int[] result = new int[moved];
+        moved = 0;
+        for (int i = 0; i < stays.length; i++) {
+            if (!stays[i]) {
+                result[moved++] = i;
+            }
+        }
         return result;
     }
 
+    /**
+     * Build the updates that persist the current order in a REAL
+     * sort key column, touching only the rows returned by
+     * {@link #getMovedListPositions()}. Each run of moved rows gets
+     * keys spaced evenly between the keys of the unmoved rows just
+     * before and after it in the list.
+     * <p>
+     * The Cursor must be sorted by <code>sortColumn</code>, with
+     * distinct keys. Each update targets <code>uri</code> with the
+     * row's <code>_id</code> appended. Removed rows are not deleted;
+     * that is left to the caller. Each reorder splits the key gaps
+     * it moves rows into, so renumber all rows once in a while if
+     * rows keep getting dragged between the same neighbors. The
+     * Cursor is left at the position it was at.
+     *
+     * @param uri Content URI of the table (without an id).
+     * @param sortColumn Name of the sort key column.
+     *
+     * @return Updates to pass to
+     * {@link android.content.ContentResolver#applyBatch(String, ArrayList)}.
+     */
+    public ArrayList<ContentProviderOperation> buildSortKeyUpdates(Uri uri, String sortColumn) {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        final Cursor c = getCursor();
+        if (mListMapping == null || c == null) {
+            return ops;
+        }
+
+        final int count = getCount();
+        final int[] positions = new int[count];
+        fillCursorPositions(positions);
+        final boolean[] stays = CursorPositionMap.markLongestIncreasing(positions);
+
+        final int keyColumn = c.getColumnIndexOrThrow(sortColumn);
+        final int idColumn = c.getColumnIndexOrThrow("_id");
+        final int savedPosition = c.getPosition();
+
+        int first = 0;
+        while (first < count) {
+            if (stays[first]) {
+                first++;
+                continue;
+            }
+            int end = first + 1;
+            while (end < count && !stays[end]) {
+                end++;
+            }
+
+            // at least one row stays, so one of these exists
+            final int moved = end - first;
+            double before = 0;
+            double after = 0;
+            if (first > 0) {
+                c.moveToPosition(positions[first - 1]);
+                before = c.getDouble(keyColumn);
+            }
+            if (end < count) {
+                c.moveToPosition(positions[end]);
+                after = c.getDouble(keyColumn);
+            }
+            if (first == 0) {
+                before = after - (moved + 1);
+            } else if (end == count) {
+                after = before + (moved + 1);
+            }
+
+            final double step = (after - before) / (moved + 1);
+            for (int i = 0; i < moved; i++) {
+                c.moveToPosition(positions[first + i]);
+                ops.add(ContentProviderOperation
+                        .newUpdate(ContentUris.withAppendedId(uri, c.getLong(idColumn)))
+                        .withValue(sortColumn, before + step * (i + 1))
+                        .build());
+            }
+            first = end;
+        }
+
+        // the Cursor is shared with the adapter's bindView
+        c.moveToPosition(savedPosition);
+        return ops;
+    }
+
     /**
      * Get the list position mapped to by the provided Cursor position.
      * If the provided Cursor position has been removed by a drag-sort,
      * this returns {@link #REMOVED}.
      *
+     * O(log r) for r runs (see
+     * {@link #visitCursorRuns(CursorRunVisitor)}), except that the
+     * first lookup after each drop or remove first rebuilds a sorted
+     * copy of the runs, in O(r log r). A loop over all rows after an
+     * edit is thus O(n log r) overall; to map many rows, walking the
+     * runs is cheaper still.
+     *
      * @param cursorPosition A Cursor position
      * @return The mapped-to list position or REMOVED
      */
     public int getListPosition(int cursorPosition) {
-        if (mRemovedCursorPositions.contains(cursorPosition)) {
-            return REMOVED;
-        }
-
-        int index = mListMapping.indexOfValue(cursorPosition);
-        if (index < 0) {
+        if (mListMapping == null) {
             return cursorPosition;
-        } else {
-            return mListMapping.keyAt(index);
         }
+        if (mListMapping.isRemoved(cursorPosition)) {
+            return REMOVED;
+        }
+        return mListMapping.indexOf(cursorPosition);
     }
 
 
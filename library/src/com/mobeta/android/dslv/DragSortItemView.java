@@ -25,6 +25,19 @@ public class DragSortItemView extends ViewGroup {
 
     private int mGravity = Gravity.TOP;
 
+    /**
+     * Width MeasureSpec the child was last measured with. The child
+     * is always measured with an UNSPECIFIED height, so its
+     * measurement stays valid until this or the child changes.
+     */
+    private int mChildWidthMeasureSpec;
+
+    /**
+     * Set when the child was measured in the current measure pass
+     * and so must be laid out.
+     */
+    private boolean mChildMeasured = false;
+
     public DragSortItemView(Context context) {
         super(context);
 
@@ -52,12 +65,27 @@ public class DragSortItemView extends ViewGroup {
             return;
         }
 
+        final int width = getMeasuredWidth();
+        final int childHeight = child.getMeasuredHeight();
+        final int childTop;
         if (mGravity == Gravity.TOP) {
-            child.layout(0, 0, getMeasuredWidth(), child.getMeasuredHeight());
+            childTop = 0;
+        } else {
+            childTop = getMeasuredHeight() - childHeight;
+        }
+
+        if (!mChildMeasured && !child.isLayoutRequested() && child.getLeft() == 0
+                && child.getWidth() == width && child.getHeight() == childHeight) {
+            // Only the blank space (or gravity) changed. Shift the
+            // child instead of laying out its whole subtree again.
+            final int offset = childTop - child.getTop();
+            if (offset != 0) {
+                child.offsetTopAndBottom(offset);
+            }
         } else {
-            child.layout(0, getMeasuredHeight() - child.getMeasuredHeight(), 
-            		getMeasuredWidth(), getMeasuredHeight());
+            child.layout(0, childTop, width, childTop + childHeight);
         }
+        mChildMeasured = false;
     }
 
     @Override
@@ -73,10 +101,12 @@ public class DragSortItemView extends ViewGroup {
             return;
         }
 
-        if (child.isLayoutRequested()) {
+        if (child.isLayoutRequested() || widthMeasureSpec != mChildWidthMeasureSpec) {
             // Always let child be as tall as it wants.
             measureChild(child, widthMeasureSpec,
                     MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+            mChildWidthMeasureSpec = widthMeasureSpec;
+            mChildMeasured = true;
         }
 
         if (heightMode == MeasureSpec.UNSPECIFIED) {
@@ -24,25 +24,33 @@ package com.mobeta.android.dslv;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.database.DataSetObserver;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcelable;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.SparseBooleanArray;
-import android.util.SparseIntArray;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.VelocityTracker;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.BaseAdapter;
@@ -82,6 +90,14 @@ public class DragSortListView extends ListView {
      */
     private int mFloatViewMid;
 
+    /**
+     * Bounds of the floating View as last invalidated, in ListView
+     * coordinates. Empty if the floating View is not on screen.
+     */
+    private Rect mFloatDirtyRect = new Rect();
+
+    private Rect mTempRect = new Rect();
+
     /**
      * Flag to make sure float View isn't measured twice
      */
@@ -99,6 +115,34 @@ public class DragSortListView extends ListView {
     private float mFloatAlpha = 1.0f;
     private float mCurrFloatAlpha = 1.0f;
 
+    /**
+     * Float View render mode. Draw the floating View into the
+     * ListView canvas in {@link #dispatchDraw(Canvas)}.
+     */
+    public final static int FLOAT_RENDER_CANVAS = 0;
+
+    /**
+     * Float View render mode. Host the floating View in the
+     * ListView overlay on a hardware layer and move/fade it
+     * with View properties, so dragging does not redraw it.
+     * Requires API 18; older platforms fall back to
+     * {@link #FLOAT_RENDER_CANVAS}.
+     */
+    public final static int FLOAT_RENDER_OVERLAY = 1;
+
+    private int mFloatRenderMode = FLOAT_RENDER_CANVAS;
+
+    /**
+     * True if the current floating View lives in the overlay.
+     */
+    private boolean mFloatViewInOverlay = false;
+
+    /**
+     * Layer type of the floating View before it was moved into the
+     * overlay.
+     */
+    private int mFloatViewLayerType;
+
     /**
      * While drag-sorting, the current position of the floating
      * View. If dropped, the dragged item will land in this position.
@@ -124,6 +168,51 @@ public class DragSortListView extends ListView {
      */
     private boolean mAnimate = false;
 
+    /**
+     * Shuffle mode. Open the drop slot by changing the heights of
+     * the items around it. Works on all platforms.
+     */
+    public final static int SHUFFLE_LAYOUT = 0;
+
+    /**
+     * Shuffle mode. Keep every item at its natural height and open
+     * the drop slot by animating translationY on the visible items
+     * between the source and the slot. The list is only re-laid out
+     * on drop, and items are not wrapped in an extra ViewGroup.
+     * Requires API 12; older platforms fall back to
+     * {@link #SHUFFLE_LAYOUT}. List dividers stay where they were
+     * laid out, so this looks best with uniform rows or no divider.
+     * <p>
+     * Since item Views are not wrapped, DragSortListView sets
+     * visibility and translationY directly on the root Views your
+     * ListAdapter returns, while a drag is in progress. Both are
+     * reset when the drag ends or the View is next bound, so don't
+     * use these properties on item root Views yourself.
+     */
+    public final static int SHUFFLE_TRANSLATE = 1;
+
+    private int mShuffleMode = SHUFFLE_LAYOUT;
+
+    /**
+     * True if list items are handed to ListView as-is instead of
+     * wrapped in a DragSortItemView. Only translate shuffles work
+     * without the wrapper.
+     */
+    private boolean mUnwrappedItems = false;
+
+    /**
+     * True while the current drag-sort uses SHUFFLE_TRANSLATE.
+     */
+    private boolean mTranslateShuffle = false;
+
+    /**
+     * In translate mode, how far items slide to open or close the
+     * drop slot: the src item height plus a divider.
+     */
+    private int mShuffleGap;
+
+    private static final int sShuffleDuration = 150;
+
     /**
      * The user dragged from this position.
      */
@@ -173,6 +262,12 @@ public class DragSortListView extends ListView {
      */
     private RemoveListener mRemoveListener;
 
+    /**
+     * Supplies heights of offscreen items so that DSLV need not
+     * inflate them. Optional.
+     */
+    private HeightHintAdapter mHeightHintAdapter;
+
     /**
      * Enable/Disable item dragging
      * 
@@ -215,10 +310,38 @@ public class DragSortListView extends ListView {
     private int mWidthMeasureSpec = 0;
 
     /**
-     * Sample Views ultimately used for calculating the height
+     * Scrap Views ultimately used for calculating the height
      * of ListView items that are off-screen.
      */
-    private View[] mSampleViewTypes = new View[1];
+    private MeasureScrapPool mMeasureScrap = new MeasureScrapPool();
+
+    /**
+     * Rewrites check state for {@link #moveCheckState(int, int)} and
+     * {@link #removeCheckState(int)}.
+     */
+    private CheckStateShifter mCheckStateShifter = new CheckStateShifter();
+
+    /**
+     * Ids of checked items, kept when the ListAdapter has stable ids
+     * and a choice mode is set. In that case this is the real check
+     * state: ListView's own migration by id gives up on items moved
+     * more than 20 rows. ListView's positional check state is fixed
+     * up as items are bound, and in full when it is asked for.
+     */
+    private LongHashSet mCheckedIds = new LongHashSet();
+    private LongHashSet mScratchIds = new LongHashSet();
+
+    /**
+     * Set when items may have moved since ListView's positional
+     * check state last matched mCheckedIds.
+     */
+    private boolean mCheckedPositionsDirty = false;
+
+    /**
+     * Releases memory held for drag-sorts when the system asks.
+     * Registered on the application Context while attached.
+     */
+    private ComponentCallbacks2 mTrimCallbacks;
 
     /**
      * Drag-scroll encapsulator!
@@ -296,6 +419,39 @@ public class DragSortListView extends ListView {
      */
     private int mLastY;
 
+    /**
+     * Touch y at the last frame-time update of the drag. Touch
+     * events arrive more often than frames, so this can differ from
+     * mLastY.
+     */
+    private int mLastDragY;
+
+    /**
+     * Set when an ACTION_MOVE has been recorded but not yet applied
+     * to the floating View. Moves are applied once per frame by
+     * mDragMoveListener.
+     */
+    private boolean mDragMovePending = false;
+
+    /**
+     * Tracks touch velocity (including historical samples) during a
+     * drag.
+     */
+    private VelocityTracker mVelocityTracker;
+
+    /**
+     * Touch velocity in y at the last frame, in pixels per ms.
+     */
+    private float mDragVelocityY = 0;
+
+    private final FrameListener mDragMoveListener = new FrameListener() {
+        @Override
+        public boolean onFrame(long frameTime) {
+            flushDragMove();
+            return false;
+        }
+    };
+
     /**
      * The touch y-coord at which drag started
      */
@@ -427,10 +583,71 @@ public class DragSortListView extends ListView {
      * Actually, we cache the height of the child of the
      * DragSortItemView since the item height changes often during a
      * drag-sort.
+     *
+     * Entries are keyed by item id if the adapter has stable ids
+     * (by position otherwise). Id-keyed entries survive the data
+     * change a drop or remove causes, so they outlive a single
+     * drag-sort; any other data change clears the cache.
+     *
+     * @attr name dslv:child_height_cache_size
      */
-    private static final int sCacheSize = 3;
+    private static final int sCacheSize = 64;
     private HeightCache mChildHeightCache = new HeightCache(sCacheSize);
 
+    /**
+     * Child heights indexed by ListView position. Filled in as items
+     * are measured, this lets DSLV find the item under the floating
+     * View with a binary search instead of walking the list one
+     * item at a time. Invalidated whenever the adapter data changes.
+     */
+    private HeightIndex mHeightIndex = new HeightIndex();
+    private boolean mHeightIndexValid = false;
+
+    /**
+     * Memo of child and item heights for the positions touched by
+     * one {@link #updatePositions()} pass, which asks for the same
+     * heights several times. Direct-mapped by position; entries from
+     * earlier passes are told apart by their generation stamp.
+     */
+    private static final int sHeightMemoSize = 64;
+    private final int[] mMemoPositions = new int[sHeightMemoSize];
+    private final int[] mMemoGenerations = new int[sHeightMemoSize];
+    private final int[] mMemoChildHeights = new int[sHeightMemoSize];
+    private final int[] mMemoItemHeights = new int[sHeightMemoSize];
+    private int mMemoGeneration = 0;
+    private boolean mHeightMemoActive = false;
+
+    /**
+     * Results of {@link #scanForSlot(int, int)}.
+     */
+    private int mScanPos;
+    private int mScanEdge;
+    private int mScanLastEdge;
+
+    /**
+     * Time of the last drop slot search, for bounding the next one.
+     */
+    private long mLastScanTime;
+
+    private static final long sMaxScanInterval = 100;
+
+    /**
+     * Set if all items (excluding headers and footers) have the
+     * same height. Shuffle math is then done arithmetically instead
+     * of by inspecting Views.
+     *
+     * @attr name dslv:uniform_item_heights
+     */
+    private boolean mUniformItemHeights = false;
+
+    /**
+     * The common child height if mUniformItemHeights is set. Taken
+     * from the first item measured; -1 until then.
+     */
+    private int mUniformChildHeight = -1;
+
+    private FrameScheduler mFrameScheduler = new FrameScheduler();
+
     private RemoveAnimator mRemoveAnimator;
 
     private LiftAnimator mLiftAnimator;
@@ -492,6 +709,23 @@ public class DragSortListView extends ListView {
                     R.styleable.DragSortListView_drop_animation_duration,
                     dropAnimDuration);
 
+            mChildHeightCache.setMaxSize(a.getInt(
+                    R.styleable.DragSortListView_child_height_cache_size,
+                    sCacheSize));
+
+            mUniformItemHeights = a.getBoolean(
+                    R.styleable.DragSortListView_uniform_item_heights,
+                    false);
+
+            mFloatRenderMode = a.getInt(
+                    R.styleable.DragSortListView_float_render_mode,
+                    FLOAT_RENDER_CANVAS);
+
+            mShuffleMode = a.getInt(
+                    R.styleable.DragSortListView_shuffle_mode,
+                    SHUFFLE_LAYOUT);
+            mUnwrappedItems = isTranslateShuffleMode(mShuffleMode);
+
             boolean useDefault = a.getBoolean(
                     R.styleable.DragSortListView_use_default_controller,
                     true);
@@ -529,6 +763,19 @@ public class DragSortListView extends ListView {
                 controller.setSortEnabled(sortEnabled);
                 controller.setBackgroundColor(bgColor);
 
+                if (a.getInt(R.styleable.DragSortListView_float_bitmap_config, 0) == 1) {
+                    controller.setFloatBitmapConfig(Bitmap.Config.RGB_565);
+                }
+                controller.setFloatBitmapScale(a.getFloat(
+                        R.styleable.DragSortListView_float_bitmap_scale,
+                        1f));
+                controller.setFloatBitmapMaxBytes(a.getInt(
+                        R.styleable.DragSortListView_float_bitmap_max_bytes,
+                        0));
+                controller.setSnapshotMode(a.getInt(
+                        R.styleable.DragSortListView_float_snapshot_mode,
+                        DragSortController.SNAPSHOT_BITMAP));
+
                 mFloatViewManager = controller;
                 setOnTouchListener(controller);
             }
@@ -553,6 +800,8 @@ public class DragSortListView extends ListView {
         // construct the dataset observer
         mObserver = new DataSetObserver() {
             private void cancel() {
+                mHeightIndexValid = false;
+                mUniformChildHeight = -1;
                 if (mDragState == DRAGGING) {
                     cancelDrag();
                 }
@@ -561,11 +810,22 @@ public class DragSortListView extends ListView {
             @Override
             public void onChanged() {
                 cancel();
+                mCheckedPositionsDirty = true;
+                // Positions may have moved, and outside our own drop or
+                // remove, item contents (and heights) may have changed
+                // under the same id. A drop or remove notifies from
+                // inside the listener, while mDragState says so.
+                if (!isChildHeightCacheById()
+                        || (mDragState != DROPPING && mDragState != REMOVING)) {
+                    mChildHeightCache.clear();
+                }
             }
 
             @Override
             public void onInvalidated() {
                 cancel();
+                mCheckedPositionsDirty = true;
+                mChildHeightCache.clear();
             }
         };
     }
@@ -577,6 +837,9 @@ public class DragSortListView extends ListView {
      */
     public void setFloatAlpha(float alpha) {
         mCurrFloatAlpha = alpha;
+        if (mFloatView != null) {
+            updateFloatViewInOverlay();
+        }
     }
 
     public float getFloatAlpha() {
@@ -618,11 +881,19 @@ public class DragSortListView extends ListView {
             if (adapter instanceof RemoveListener) {
                 setRemoveListener((RemoveListener) adapter);
             }
+            if (adapter instanceof HeightHintAdapter) {
+                setHeightHintAdapter((HeightHintAdapter) adapter);
+            }
         } else {
             mAdapterWrapper = null;
         }
 
+        mChildHeightCache.clear();
+        mHeightIndexValid = false;
+        mUniformChildHeight = -1;
+
         super.setAdapter(mAdapterWrapper);
+        loadCheckedIds();
     }
 
     /**
@@ -700,6 +971,20 @@ public class DragSortListView extends ListView {
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
+            syncCheckState(position);
+
+            // convertViews of the other wrapping (from before a
+            // shuffle mode change) can't be reused
+            final boolean wrapped = convertView instanceof DragSortItemView;
+            if (mUnwrappedItems) {
+                View child = mAdapter.getView(position, wrapped ? null : convertView,
+                        DragSortListView.this);
+                adjustItem(position + getHeaderViewsCount(), child, true);
+                return child;
+            } else if (!wrapped) {
+                convertView = null;
+            }
+
             DragSortItemView v;
             View child;
             if (convertView != null) {
@@ -751,15 +1036,14 @@ public class DragSortListView extends ListView {
         final int dividerHeight = getDividerHeight();
 
         if (divider != null && dividerHeight != 0) {
-            final ViewGroup expItem = (ViewGroup) getChildAt(expPosition
-                    - getFirstVisiblePosition());
-            if (expItem != null) {
+            final View expItem = getChildAt(expPosition - getFirstVisiblePosition());
+            if (expItem instanceof DragSortItemView) {
                 final int left = getPaddingLeft();
                 final int right = getWidth() - getPaddingRight();
                 final int top;
                 final int bottom;
 
-                final int childHeight = expItem.getChildAt(0).getHeight();
+                final int childHeight = ((ViewGroup) expItem).getChildAt(0).getHeight();
 
                 if (expPosition > mSrcPos) {
                     top = expItem.getTop() + childHeight;
@@ -793,40 +1077,131 @@ public class DragSortListView extends ListView {
             }
         }
 
-        if (mFloatView != null) {
+        if (mFloatView != null && !mFloatViewInOverlay) {
             // draw the float view over everything
             final int floatViewWidth = mFloatView.getWidth();
             final int floatViewHeight = mFloatView.getHeight();
 
-            int x = mFloatLoc.x;
-
-            final int listViewWidth = getWidth();
-            if (x < 0)
-                x = -x;
-            float alphaMod;
-            if (x < listViewWidth) {
-                alphaMod = ((float) (listViewWidth - x)) / ((float) listViewWidth);
-                alphaMod *= alphaMod;
-            } else {
-                alphaMod = 0;
+            final int alpha = (int) (255f * getFloatViewAlpha());
+            if (alpha <= 0) {
+                return;
             }
 
-            final int alpha = (int) (255f * mCurrFloatAlpha * alphaMod);
-
             canvas.save();
             canvas.translate(mFloatLoc.x, mFloatLoc.y);
             canvas.clipRect(0, 0, floatViewWidth, floatViewHeight);
 
-            canvas.saveLayerAlpha(0, 0, floatViewWidth, floatViewHeight, alpha, 
-                    Canvas.ALL_SAVE_FLAG);
-
-            mFloatView.draw(canvas);
-            canvas.restore();
+            if (alpha < 255) {
+                // the layer only needs alpha and the clip; skip the
+                // offscreen buffer entirely when opaque
+                canvas.saveLayerAlpha(0, 0, floatViewWidth, floatViewHeight, alpha,
+                        Canvas.HAS_ALPHA_LAYER_SAVE_FLAG | Canvas.CLIP_TO_LAYER_SAVE_FLAG);
+                mFloatView.draw(canvas);
+                canvas.restore();
+            } else {
+                mFloatView.draw(canvas);
+            }
             canvas.restore();
         }
     }
 
+    /**
+     * @return Alpha of the floating View, including the fade-out
+     * as it is dragged sideways off the list.
+     */
+    private float getFloatViewAlpha() {
+        int x = mFloatLoc.x;
+
+        final int listViewWidth = getWidth();
+        if (x < 0)
+            x = -x;
+        float alphaMod;
+        if (x < listViewWidth) {
+            alphaMod = ((float) (listViewWidth - x)) / ((float) listViewWidth);
+            alphaMod *= alphaMod;
+        } else {
+            alphaMod = 0;
+        }
+
+        return mCurrFloatAlpha * alphaMod;
+    }
+
+    /**
+     * Move the floating View into the overlay if the render mode
+     * asks for it and the platform supports it.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void attachFloatViewToOverlay() {
+        if (mFloatRenderMode != FLOAT_RENDER_OVERLAY
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2
+                || mFloatView.getParent() != null) {
+            return;
+        }
+
+        mFloatViewLayerType = mFloatView.getLayerType();
+        mFloatView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        getOverlay().add(mFloatView);
+        mFloatViewInOverlay = true;
+        updateFloatViewInOverlay();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void detachFloatViewFromOverlay() {
+        if (mFloatViewInOverlay) {
+            getOverlay().remove(mFloatView);
+            mFloatView.setLayerType(mFloatViewLayerType, null);
+            mFloatView.setTranslationX(0);
+            mFloatView.setTranslationY(0);
+            mFloatView.setAlpha(1f);
+            mFloatViewInOverlay = false;
+        }
+    }
+
+    /**
+     * Push float location and alpha to the overlay-hosted floating
+     * View. These are layer properties, so nothing is redrawn.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void updateFloatViewInOverlay() {
+        if (mFloatViewInOverlay) {
+            mFloatView.setTranslationX(mFloatLoc.x);
+            mFloatView.setTranslationY(mFloatLoc.y);
+            mFloatView.setAlpha(getFloatViewAlpha());
+        }
+    }
+
+    /**
+     * Choose how the floating View is rendered during a drag. Takes
+     * effect at the next drag start.
+     *
+     * @param mode One of {@link #FLOAT_RENDER_CANVAS} or
+     * {@link #FLOAT_RENDER_OVERLAY}.
+     */
+    public void setFloatRenderMode(int mode) {
+        mFloatRenderMode = mode;
+    }
+
+    public int getFloatRenderMode() {
+        return mFloatRenderMode;
+    }
+
     private int getItemHeight(int position) {
+        if (isUniformHeight(position)) {
+            return calcItemHeight(position, getChildHeight(position));
+        }
+
+        if (mHeightMemoActive) {
+            final int slot = getHeightMemoSlot(position);
+            if (mMemoItemHeights[slot] == -1) {
+                mMemoItemHeights[slot] = lookUpItemHeight(position);
+            }
+            return mMemoItemHeights[slot];
+        }
+
+        return lookUpItemHeight(position);
+    }
+
+    private int lookUpItemHeight(int position) {
         View v = getChildAt(position - getFirstVisiblePosition());
 
         if (v != null) {
@@ -839,43 +1214,183 @@ public class DragSortListView extends ListView {
         }
     }
 
+    /**
+     * Set the number of offscreen child heights remembered between
+     * drag-sorts. Larger values save re-measuring items in long
+     * lists at the cost of a little memory.
+     *
+     * @param size Maximum number of cached heights (at least 1).
+     */
+    public void setChildHeightCacheSize(int size) {
+        mChildHeightCache.setMaxSize(size);
+    }
+
+    /**
+     * Forget all cached offscreen child heights. Cached heights are
+     * dropped automatically when the adapter data changes, except
+     * that adapters with stable ids keep them across the
+     * {@link BaseAdapter#notifyDataSetChanged()} called from a
+     * DropListener or RemoveListener (so that they survive drops).
+     * Call this if the height of an item changes without the
+     * adapter notifying.
+     */
+    public void clearChildHeightCache() {
+        mChildHeightCache.clear();
+    }
+
+    /**
+     * @return Number of offscreen measurements that reused a scrap
+     * View.
+     */
+    public int getMeasureScrapHitCount() {
+        return mMeasureScrap.getHitCount();
+    }
+
+    /**
+     * @return Number of offscreen measurements that found no scrap
+     * View of their type.
+     */
+    public int getMeasureScrapMissCount() {
+        return mMeasureScrap.getMissCount();
+    }
+
+    /**
+     * Drop memory that only speeds up drag-sorts: measurement scrap
+     * Views and, if idle, pooled float View Bitmaps. Called on
+     * trim-memory events.
+     */
+    private void releaseDragSortMemory() {
+        mMeasureScrap.clear();
+        if (mDragState != IDLE) {
+            return;
+        }
+        if (mFloatViewManager instanceof SimpleFloatViewManager) {
+            ((SimpleFloatViewManager) mFloatViewManager).clearBitmapPool();
+        } else if (mFloatViewManager instanceof PictureFloatViewManager) {
+            ((PictureFloatViewManager) mFloatViewManager).clearBitmapPool();
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            registerTrimCallbacks();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mTrimCallbacks != null) {
+            unregisterTrimCallbacks();
+        }
+        mPreMeasurer.cancel();
+        mMeasureScrap.clear();
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerTrimCallbacks() {
+        if (mTrimCallbacks == null) {
+            mTrimCallbacks = new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    releaseDragSortMemory();
+                }
+
+                @Override
+                public void onLowMemory() {
+                    releaseDragSortMemory();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            };
+            getContext().getApplicationContext().registerComponentCallbacks(mTrimCallbacks);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void unregisterTrimCallbacks() {
+        getContext().getApplicationContext().unregisterComponentCallbacks(mTrimCallbacks);
+        mTrimCallbacks = null;
+    }
+
+    /**
+     * Declare that all items in the list, excluding headers and
+     * footers, are equally tall. DSLV then takes the item height
+     * from the first item it measures and computes shuffle edges,
+     * item heights and scroll adjustments arithmetically. Only the
+     * expanded items still need their Views.
+     *
+     * @param uniform True if all items share a height.
+     */
+    public void setUniformItemHeights(boolean uniform) {
+        mUniformItemHeights = uniform;
+        mUniformChildHeight = -1;
+    }
+
+    public boolean hasUniformItemHeights() {
+        return mUniformItemHeights;
+    }
+
+    /**
+     * @return True if the item at position has the common height;
+     * i.e. uniform heights are on, the height is known and position
+     * is not a header or footer.
+     */
+    private boolean isUniformHeight(int position) {
+        return mUniformItemHeights && mUniformChildHeight > 0
+                && position >= getHeaderViewsCount()
+                && position < getCount() - getFooterViewsCount();
+    }
+
+    private boolean isChildHeightCacheById() {
+        return mAdapterWrapper != null && mAdapterWrapper.hasStableIds();
+    }
+
+    /**
+     * LRU cache of child heights. Keys are item ids or positions
+     * (see {@link #isChildHeightCacheById()}). All entries are
+     * dropped if the width MeasureSpec changes, since child heights
+     * generally depend on it.
+     */
     private class HeightCache {
 
-        private SparseIntArray mMap;
-        private List<Integer> mOrder;
-        private int mMaxSize;
+        private LongIntLruCache mMap;
+        private int mWidthMeasureSpec;
 
         public HeightCache(int size) {
-            mMap = new SparseIntArray(size);
-            mOrder = new ArrayList<Integer>(size);
-            mMaxSize = size;
+            mMap = new LongIntLruCache(size);
+        }
+
+        public void setMaxSize(int size) {
+            if (size != mMap.capacity()) {
+                mMap.setCapacity(size);
+            }
         }
 
         /**
-         * Add item height at position if doesn't already exist.
+         * Add or refresh item height for key.
          */
-        public void add(int position, int height) {
-            int currentHeight = mMap.get(position, -1);
-            if (currentHeight != height) {
-                if (currentHeight == -1 && mMap.size() == mMaxSize) {
-                	// remove oldest entry
-                    mMap.delete(mOrder.remove(0));
-                } else {
-                    // move position to newest slot
-                    mOrder.remove((Integer) position);
-                }
-                mMap.put(position, height);
-                mOrder.add(position);
+        public void add(long key, int widthMeasureSpec, int height) {
+            if (widthMeasureSpec != mWidthMeasureSpec) {
+                mMap.clear();
+                mWidthMeasureSpec = widthMeasureSpec;
             }
+            mMap.put(key, height);
         }
 
-        public int get(int position) {
-            return mMap.get(position, -1);
+        public int get(long key, int widthMeasureSpec) {
+            if (widthMeasureSpec != mWidthMeasureSpec) {
+                return -1;
+            }
+            return mMap.get(key, -1);
         }
 
         public void clear() {
             mMap.clear();
-            mOrder.clear();
         }
 
     }
@@ -958,15 +1473,303 @@ public class DragSortListView extends ListView {
         return edge;
     }
 
-    private boolean updatePositions() {
+    /**
+     * Make sure the height index covers the current list.
+     */
+    private void ensureHeightIndex() {
+        final int count = getCount();
+        if (!mHeightIndexValid || mHeightIndex.size() != count) {
+            mHeightIndex.reset(count);
+            mHeightIndexValid = true;
+        }
+    }
+
+    /**
+     * Record child heights of all onscreen items in the height
+     * index. Called after each layout pass during a drag-sort.
+     */
+    private void indexVisibleChildHeights() {
+        ensureHeightIndex();
+
+        final int first = getFirstVisiblePosition();
+        final int childCount = getChildCount();
+        for (int i = 0; i < childCount; ++i) {
+            final int position = first + i;
+            if (position != mSrcPos) {
+                final View v = getChildAt(i);
+                mHeightIndex.set(position, getChildHeight(position, v, false));
+            }
+        }
+    }
+
+    /**
+     * Guess the visible item under the floating View with a binary
+     * search of the height index. The guess ignores the blank space
+     * of the expanded items, so {@link #updatePositions()} still
+     * finishes with an exact scan; starting the scan here keeps it
+     * to one or two steps.
+     */
+    private int estimateFloatPosition() {
+        final int first = getFirstVisiblePosition();
+        final int last = first + getChildCount() - 1;
+        final int divHeight = getDividerHeight();
+
+        if (isUniformHeight(first)) {
+            int pos = first + (mFloatViewMid - getChildAt(0).getTop())
+                    / (mUniformChildHeight + divHeight);
+            return Math.max(first, Math.min(last, pos));
+        }
+
+        ensureHeightIndex();
+
+        // Offset of the float View middle, measured from the top
+        // of position 0 as laid out by the index.
+        int offset = mHeightIndex.prefixSum(first) + first * divHeight
+                + mFloatViewMid - getChildAt(0).getTop();
+
+        int pos = mHeightIndex.find(offset, divHeight);
+
+        return Math.max(first, Math.min(last, pos));
+    }
+
+    /**
+     * Choose the shuffle engine for a drag-sort (or remove) of the
+     * item at mSrcPos.
+     *
+     * @param srcItem The src item View, or null if it is offscreen.
+     */
+    private void initShuffle(View srcItem) {
+        mTranslateShuffle = mUnwrappedItems;
+        if (mTranslateShuffle) {
+            // an offscreen src item needs no visible gap
+            mShuffleGap = srcItem != null ? srcItem.getHeight() + getDividerHeight() : 0;
+        }
+    }
+
+    private static boolean isTranslateShuffleMode(int mode) {
+        return mode == SHUFFLE_TRANSLATE
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1;
+    }
+
+    /**
+     * Translate mode counterpart of {@link #updatePositions()}. The
+     * drop slot is the number of draggable items (src excluded)
+     * whose middles, with the src item collapsed, are above the
+     * floating View middle.
+     *
+     * @return True if the drop slot changed.
+     */
+    private boolean updateTranslatePositions() {
         final int first = getFirstVisiblePosition();
-        int startPos = mFirstExpPos;
-        View startView = getChildAt(startPos - first);
+        final int numHeaders = getHeaderViewsCount();
+        final int lastItem = getCount() - getFooterViewsCount() - 1;
+        final int end = Math.min(lastItem, first + getChildCount() - 1);
 
-        if (startView == null) {
-            startPos = first + getChildCount() / 2;
-            startView = getChildAt(startPos - first);
+        // every item above the visible ones is above the float View
+        final int begin = Math.max(first, numHeaders);
+        int above = begin - numHeaders;
+        if (mSrcPos < begin) {
+            above--;
         }
+
+        for (int pos = begin; pos <= end; ++pos) {
+            if (pos == mSrcPos) {
+                continue;
+            }
+            final View v = getChildAt(pos - first);
+            int top = v.getTop();
+            if (pos > mSrcPos) {
+                top -= mShuffleGap;
+            }
+            if (top + v.getHeight() / 2 >= mFloatViewMid) {
+                break;
+            }
+            above++;
+        }
+
+        final int itemPos = numHeaders + above;
+        if (itemPos == mFloatPos) {
+            return false;
+        }
+
+        if (mDragListener != null) {
+            mDragListener.drag(mFloatPos - numHeaders, itemPos - numHeaders);
+        }
+
+        final int oldPos = mFloatPos;
+        mFloatPos = itemPos;
+        animateShuffle(oldPos, itemPos);
+
+        return true;
+    }
+
+    /**
+     * @return Translation of the item at position when the drop slot
+     * is at slotPos (translate shuffle mode).
+     */
+    private int getShuffleTranslation(int position, int slotPos) {
+        if (!mTranslateShuffle || mSrcPos < 0 || position == mSrcPos) {
+            return 0;
+        } else if (position > mSrcPos && position <= slotPos) {
+            return -mShuffleGap;
+        } else if (position < mSrcPos && position >= slotPos) {
+            return mShuffleGap;
+        }
+        return 0;
+    }
+
+    /**
+     * Slide the visible items whose translation differs between the
+     * old and new drop slot.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void animateShuffle(int oldSlot, int newSlot) {
+        final int first = getFirstVisiblePosition();
+        final int count = getChildCount();
+        for (int i = 0; i < count; ++i) {
+            final int position = first + i;
+            final int to = getShuffleTranslation(position, newSlot);
+            if (to != getShuffleTranslation(position, oldSlot)) {
+                final View v = getChildAt(i);
+                if (mAnimate) {
+                    v.animate().translationY(to).setDuration(sShuffleDuration);
+                } else {
+                    v.setTranslationY(to);
+                }
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void cancelShuffleAnimations() {
+        final int count = getChildCount();
+        for (int i = 0; i < count; ++i) {
+            getChildAt(i).animate().cancel();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void setItemTranslation(View v, float translationY) {
+        v.setTranslationY(translationY);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int getItemTranslation(View v) {
+        return (int) v.getTranslationY();
+    }
+
+    /**
+     * Snap an item to its translation for the current drop slot.
+     * Also clears leftover translations from recycled Views.
+     *
+     * The animator is always cancelled: a shuffle animation that
+     * is queued but not yet started leaves the translation as it is,
+     * and would otherwise run after a drop or rebind. This is only
+     * called when a drag ends and when an item is bound, never while
+     * items are animating to a new slot.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void adjustItemTranslation(int position, View v) {
+        v.animate().cancel();
+        final int translation = getShuffleTranslation(position, mFloatPos);
+        if (v.getTranslationY() != translation) {
+            v.setTranslationY(translation);
+        }
+    }
+
+    /**
+     * Unwrapped counterpart of the visibility part of adjustItem(),
+     * plus translation. These are the caller's own Views, so they
+     * are only written while a drag (or remove) is in progress, and
+     * afterwards to undo what was written then; the tag marks Views
+     * that may carry such state.
+     */
+    private void adjustUnwrappedItem(int position, View v) {
+        final boolean shuffling = mSrcPos != -1;
+        if (!shuffling && v.getTag(R.id.dslv_shuffled) == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            adjustItemTranslation(position, v);
+        }
+        adjustItemVisibility(position, v);
+        v.setTag(R.id.dslv_shuffled, shuffling ? Boolean.TRUE : null);
+    }
+
+    /**
+     * Choose how items make room for the floating View. Switching
+     * between modes cancels a drag in progress and rebuilds the
+     * item Views, since only {@link #SHUFFLE_LAYOUT} wraps them.
+     * Check state is kept.
+     *
+     * @param mode One of {@link #SHUFFLE_LAYOUT} or
+     * {@link #SHUFFLE_TRANSLATE}.
+     */
+    public void setShuffleMode(int mode) {
+        mShuffleMode = mode;
+
+        final boolean unwrapped = isTranslateShuffleMode(mode);
+        if (unwrapped != mUnwrappedItems) {
+            if (mDragState == DRAGGING) {
+                cancelDrag();
+            }
+            mUnwrappedItems = unwrapped;
+
+            if (mAdapterWrapper != null) {
+                // reset the recycler, keeping the scroll position
+                final int first = getFirstVisiblePosition();
+                final View v = getChildAt(0);
+                final int top = v == null ? 0 : v.getTop() - getPaddingTop();
+
+                // ListView clears its check state on setAdapter
+                final SparseBooleanArray checked = isTrackingCheckedIds()
+                        ? null : copyCheckedPositions();
+
+                mMeasureScrap.clear();
+                super.setAdapter(mAdapterWrapper);
+                setSelectionFromTop(first, top);
+
+                if (checked != null) {
+                    for (int i = 0; i < checked.size(); i++) {
+                        super.setItemChecked(checked.keyAt(i), true);
+                    }
+                } else {
+                    // restored from mCheckedIds as items are bound
+                    mCheckedPositionsDirty = true;
+                }
+            }
+        }
+    }
+
+    public int getShuffleMode() {
+        return mShuffleMode;
+    }
+
+    private boolean updatePositions() {
+        // Heights can't change during the scan (expanded positions
+        // are only updated at the end), so memoize them.
+        mMemoGeneration++;
+        mHeightMemoActive = true;
+        try {
+            return scanPositions();
+        } finally {
+            mHeightMemoActive = false;
+        }
+    }
+
+    /**
+     * Scan from the item at startPos (which must be onscreen) to the
+     * item whose shuffle edges surround the floating View middle.
+     * Results go in mScanPos, mScanEdge and mScanLastEdge.
+     *
+     * @param maxDistance Give up once the scan has moved this many
+     * pixels away from startPos.
+     *
+     * @return False if the scan gave up.
+     */
+    private boolean scanForSlot(int startPos, int maxDistance) {
+        View startView = getChildAt(startPos - getFirstVisiblePosition());
+
         int startTop = startView.getTop();
 
         int itemHeight = startView.getHeight();
@@ -998,6 +1801,10 @@ public class DragSortListView extends ListView {
                     break;
                 }
 
+                if (startTop - itemTop > maxDistance) {
+                    return false;
+                }
+
                 lastEdge = edge;
             }
         } else {
@@ -1018,11 +1825,47 @@ public class DragSortListView extends ListView {
                     break;
                 }
 
+                if (itemTop - startTop > maxDistance) {
+                    return false;
+                }
+
                 lastEdge = edge;
                 itemPos++;
             }
         }
 
+        mScanPos = itemPos;
+        mScanEdge = edge;
+        mScanLastEdge = lastEdge;
+        return true;
+    }
+
+    private boolean scanPositions() {
+        final int first = getFirstVisiblePosition();
+
+        final long now = SystemClock.uptimeMillis();
+        final long dt = Math.min(now - mLastScanTime, sMaxScanInterval);
+        mLastScanTime = now;
+
+        // The slot can't have moved much further than the pointer
+        // since the last pass, so first look near the previous slot.
+        // The float View height covers slot edges shifting as items
+        // expand and collapse.
+        boolean found = false;
+        if (mFloatPos >= first && mFloatPos < first + getChildCount()) {
+            final int maxDistance = (int) Math.ceil(Math.abs(mDragVelocityY) * dt)
+                    + mFloatViewHeight;
+            found = scanForSlot(mFloatPos, maxDistance);
+        }
+        if (!found) {
+            // jumped (e.g. by a scroll); start from the estimate
+            scanForSlot(estimateFloatPosition(), Integer.MAX_VALUE);
+        }
+
+        int itemPos = mScanPos;
+        final int edge = mScanEdge;
+        final int lastEdge = mScanLastEdge;
+
         final int numHeaders = getHeaderViewsCount();
         final int numFooters = getFooterViewsCount();
 
@@ -1085,30 +1928,171 @@ public class DragSortListView extends ListView {
             updated = true;
         }
 
-        if (itemPos != mFloatPos) {
-            if (mDragListener != null) {
-                mDragListener.drag(mFloatPos - numHeaders, itemPos - numHeaders);
+        if (itemPos != mFloatPos) {
+            if (mDragListener != null) {
+                mDragListener.drag(mFloatPos - numHeaders, itemPos - numHeaders);
+            }
+
+            mFloatPos = itemPos;
+            updated = true;
+        }
+
+        return updated;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mTrackDragSort) {
+            mDragSortTracker.appendState();
+        }
+    }
+
+    /**
+     * Work that is advanced once per display frame by the
+     * {@link FrameScheduler}.
+     */
+    private interface FrameListener {
+        /**
+         * @param frameTime Time of the current frame in ms, in the
+         * {@link SystemClock#uptimeMillis()} time base.
+         *
+         * @return True to be called again on the next frame.
+         */
+        public boolean onFrame(long frameTime);
+    }
+
+    /**
+     * Drives the lift, drop and remove animators and the drag
+     * scroller. Each registered FrameListener runs exactly once per
+     * frame, and all of them see the same frame time. On API 16+ the
+     * frames come from {@link Choreographer}, so they are aligned
+     * with vsync at any display refresh rate; older platforms fall
+     * back to posting to the message queue.
+     */
+    private class FrameScheduler {
+
+        /**
+         * Frame interval used when Choreographer is not available.
+         */
+        private static final long FALLBACK_FRAME_DELAY = 10; // ms
+
+        private FrameListener[] mListeners = new FrameListener[4];
+        private FrameListener[] mRunning = new FrameListener[4];
+        private int mCount = 0;
+
+        private boolean mScheduled = false;
+
+        private ChoreographerTick mChoreographerTick;
+
+        private final Runnable mFallbackTick = new Runnable() {
+            @Override
+            public void run() {
+                onTick(SystemClock.uptimeMillis());
+            }
+        };
+
+        public void add(FrameListener l) {
+            if (indexOf(l) < 0) {
+                if (mCount == mListeners.length) {
+                    FrameListener[] grown = new FrameListener[mCount * 2];
+                    System.arraycopy(mListeners, 0, grown, 0, mCount);
+                    mListeners = grown;
+                    mRunning = new FrameListener[mCount * 2];
+                }
+                mListeners[mCount++] = l;
+            }
+            schedule();
+        }
+
+        public void remove(FrameListener l) {
+            int i = indexOf(l);
+            if (i >= 0) {
+                // keep registration order
+                System.arraycopy(mListeners, i + 1, mListeners, i, mCount - i - 1);
+                mListeners[--mCount] = null;
+            }
+        }
+
+        public boolean isRunning(FrameListener l) {
+            return indexOf(l) >= 0;
+        }
+
+        private int indexOf(FrameListener l) {
+            for (int i = 0; i < mCount; ++i) {
+                if (mListeners[i] == l) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void schedule() {
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                if (mChoreographerTick == null) {
+                    mChoreographerTick = new ChoreographerTick(this);
+                }
+                mChoreographerTick.post();
+            } else {
+                postDelayed(mFallbackTick, FALLBACK_FRAME_DELAY);
+            }
+        }
+
+        private void onTick(long frameTime) {
+            mScheduled = false;
+
+            // listeners may add or remove listeners while running
+            final int count = mCount;
+            final FrameListener[] running = mRunning;
+            System.arraycopy(mListeners, 0, running, 0, count);
+            for (int i = 0; i < count; ++i) {
+                final FrameListener l = running[i];
+                running[i] = null;
+                if (isRunning(l) && !l.onFrame(frameTime)) {
+                    remove(l);
+                }
             }
 
-            mFloatPos = itemPos;
-            updated = true;
+            if (mCount > 0) {
+                schedule();
+            }
         }
-
-        return updated;
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerTick implements Choreographer.FrameCallback {
 
-        if (mTrackDragSort) {
-            mDragSortTracker.appendState();
+        private final FrameScheduler mScheduler;
+
+        public ChoreographerTick(FrameScheduler scheduler) {
+            mScheduler = scheduler;
+        }
+
+        public void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // Choreographer and uptimeMillis share the monotonic clock
+            mScheduler.onTick(frameTimeNanos / 1000000);
         }
     }
 
-    private class SmoothAnimator implements Runnable {
+    private class SmoothAnimator implements FrameListener {
         protected long mStartTime;
 
+        /**
+         * Time of the frame being processed.
+         */
+        protected long mFrameTime;
+
         private float mDurationF;
 
         private float mAlpha;
@@ -1135,14 +2119,16 @@ public class DragSortListView extends ListView {
         }
 
         public void start() {
-            mStartTime = SystemClock.uptimeMillis();
+            // start time is taken from the first frame
+            mStartTime = -1;
             mCanceled = false;
             onStart();
-            post(this);
+            mFrameScheduler.add(this);
         }
 
         public void cancel() {
             mCanceled = true;
+            mFrameScheduler.remove(this);
         }
 
         public void onStart() {
@@ -1158,19 +2144,25 @@ public class DragSortListView extends ListView {
         }
 
         @Override
-        public void run() {
+        public boolean onFrame(long frameTime) {
             if (mCanceled) {
-                return;
+                return false;
             }
 
-            float fraction = ((float) (SystemClock.uptimeMillis() - mStartTime)) / mDurationF;
+            if (mStartTime < 0) {
+                mStartTime = frameTime;
+            }
+            mFrameTime = frameTime;
+
+            float fraction = ((float) (frameTime - mStartTime)) / mDurationF;
 
             if (fraction >= 1f) {
                 onUpdate(1f, 1f);
                 onStop();
+                return false;
             } else {
                 onUpdate(fraction, transform(fraction));
-                post(this);
+                return !mCanceled;
             }
         }
     }
@@ -1234,7 +2226,15 @@ public class DragSortListView extends ListView {
             final int otherAdjust = (mItemHeightCollapsed + getDividerHeight()) / 2;
             View v = getChildAt(mDropPos - first);
             int targetY = -1;
-            if (v != null) {
+            if (v != null && mTranslateShuffle) {
+                // slot is where the drop item would be with final
+                // translations
+                if (mDropPos <= srcPos) {
+                    targetY = v.getTop();
+                } else {
+                    targetY = v.getBottom() - mShuffleGap + getDividerHeight();
+                }
+            } else if (v != null) {
                 if (mDropPos == srcPos) {
                     targetY = v.getTop();
                 } else if (mDropPos < srcPos) {
@@ -1288,6 +2288,11 @@ public class DragSortListView extends ListView {
         private int mFirstPos;
         private int mSecondPos;
 
+        /**
+         * Drop slot at remove start (translate shuffle mode).
+         */
+        private int mSlotPos;
+
         public RemoveAnimator(float smoothness, int duration) {
             super(smoothness, duration);
         }
@@ -1298,7 +2303,11 @@ public class DragSortListView extends ListView {
             mSecondChildHeight = -1;
             mFirstPos = mFirstExpPos;
             mSecondPos = mSecondExpPos;
+            mSlotPos = mFloatPos;
             mDragState = REMOVING;
+            if (mTranslateShuffle) {
+                cancelShuffleAnimations();
+            }
 
             mFloatLocX = mFloatLoc.x;
             if (mUseRemoveVelocity) {
@@ -1327,7 +2336,7 @@ public class DragSortListView extends ListView {
             int blank;
 
             if (mUseRemoveVelocity) {
-                float dt = (float) (SystemClock.uptimeMillis() - mStartTime) / 1000;
+                float dt = (float) (mFrameTime - mStartTime) / 1000;
                 if (dt == 0)
                     return;
                 float dx = mRemoveVelocityX * dt;
@@ -1336,12 +2345,25 @@ public class DragSortListView extends ListView {
                 mFloatLocX += dx;
                 mFloatLoc.x = (int) mFloatLocX;
                 if (mFloatLocX < w && mFloatLocX > -w) {
-                    mStartTime = SystemClock.uptimeMillis();
+                    mStartTime = mFrameTime;
                     doDragFloatView(true);
                     return;
                 }
             }
 
+            if (mTranslateShuffle) {
+                // slide items from their slot translations to close
+                // the src item's gap
+                final int count = getChildCount();
+                for (int i = 0; i < count; ++i) {
+                    final int position = firstVis + i;
+                    final float from = getShuffleTranslation(position, mSlotPos);
+                    final float to = position > mSrcPos ? -mShuffleGap : 0;
+                    setItemTranslation(getChildAt(i), from + smoothFrac * (to - from));
+                }
+                return;
+            }
+
             if (item != null) {
                 if (mFirstChildHeight == -1) {
                     mFirstChildHeight = getChildHeight(mFirstPos, item, false);
@@ -1397,6 +2419,7 @@ public class DragSortListView extends ListView {
                 if (v != null) {
                     v.setVisibility(View.INVISIBLE);
                 }
+                initShuffle(v);
             }
 
             mDragState = REMOVING;
@@ -1472,6 +2495,7 @@ public class DragSortListView extends ListView {
         if (mDropListener != null && mFloatPos >= 0 && mFloatPos < getCount()) {
             final int numHeaders = getHeaderViewsCount();
             mDropListener.drop(mSrcPos - numHeaders, mFloatPos - numHeaders);
+            mCheckedPositionsDirty = true;
         }
 
         destroyFloatView();
@@ -1501,13 +2525,22 @@ public class DragSortListView extends ListView {
 
         // end it
         if (mRemoveListener != null) {
+            if (isTrackingCheckedIds() && which >= 0 && which < mAdapterWrapper.getCount()) {
+                mCheckedIds.remove(mAdapterWrapper.getItemId(which));
+            }
             mRemoveListener.remove(which);
+            mCheckedPositionsDirty = true;
         }
 
         destroyFloatView();
 
         adjustOnReorder();
         clearPositions();
+        if (mTranslateShuffle) {
+            // zero translations; the list is re-laid out without
+            // the removed item in the same pass
+            adjustAllItems();
+        }
 
         // now the drag is done
         if (mInTouchEvent) {
@@ -1527,6 +2560,20 @@ public class DragSortListView extends ListView {
             if (v != null) {
                 top = v.getTop();
             }
+            if (mTranslateShuffle) {
+                // The src item kept its height above the screen, and
+                // the visible items are drawn translated over it.
+                if (mDragState == REMOVING) {
+                    // slot or remove animation translation
+                    top += v != null ? getItemTranslation(v) : 0;
+                } else if (mFloatPos >= firstPos) {
+                    top -= mShuffleGap;
+                } else {
+                    // src and slot both above the screen; the
+                    // visible items keep their positions
+                    return;
+                }
+            }
             setSelectionFromTop(firstPos - 1, top - getPaddingTop());
         }
     }
@@ -1635,7 +2682,11 @@ public class DragSortListView extends ListView {
         }
         mCurrFloatAlpha = mFloatAlpha;
         mListViewIntercepted = false;
-        mChildHeightCache.clear();
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        mDragVelocityY = 0;
     }
 
     private void saveTouchCoords(MotionEvent ev) {
@@ -1753,6 +2804,25 @@ public class DragSortListView extends ListView {
         }
     }
 
+    /**
+     * Apply the latest recorded touch location to the drag. Does
+     * nothing if no move is pending.
+     */
+    private void flushDragMove() {
+        if (!mDragMovePending) {
+            return;
+        }
+        mDragMovePending = false;
+
+        if (mDragState == DRAGGING) {
+            if (mVelocityTracker != null) {
+                mVelocityTracker.computeCurrentVelocity(1);
+                mDragVelocityY = mVelocityTracker.getYVelocity();
+            }
+            continueDrag(mX, mY);
+        }
+    }
+
     private void continueDrag(int x, int y) {
         // proposed position
         mFloatLoc.x = x - mDragDeltaX;
@@ -1760,13 +2830,16 @@ public class DragSortListView extends ListView {
 
         doDragFloatView(true);
 
+        final int lastY = mLastDragY;
+        mLastDragY = y;
+
         int minY = Math.min(y, mFloatViewMid + mFloatViewHeightHalf);
         int maxY = Math.max(y, mFloatViewMid - mFloatViewHeightHalf);
 
         // get the current scroll direction
         int currentScrollDir = mDragScroller.getScrollDir();
 
-        if (minY > mLastY && minY > mDownScrollStartY && currentScrollDir != DragScroller.DOWN) {
+        if (minY > lastY && minY > mDownScrollStartY && currentScrollDir != DragScroller.DOWN) {
             // dragged down, it is below the down scroll start and it is not
             // scrolling up
 
@@ -1777,7 +2850,7 @@ public class DragSortListView extends ListView {
 
             // start scrolling down
             mDragScroller.startScrolling(DragScroller.DOWN);
-        } else if (maxY < mLastY && maxY < mUpScrollStartY && currentScrollDir != DragScroller.UP) {
+        } else if (maxY < lastY && maxY < mUpScrollStartY && currentScrollDir != DragScroller.UP) {
             // dragged up, it is above the up scroll start and it is not
             // scrolling up
 
@@ -1839,10 +2912,16 @@ public class DragSortListView extends ListView {
      * wrapped item.
      */
     private void adjustItem(int position, View v, boolean invalidChildHeight) {
+        if (!(v instanceof DragSortItemView)) {
+            adjustUnwrappedItem(position, v);
+            return;
+        }
+
         // Adjust item height
         ViewGroup.LayoutParams lp = v.getLayoutParams();
         int height;
-        if (position != mSrcPos && position != mFirstExpPos && position != mSecondExpPos) {
+        if (mTranslateShuffle
+                || (position != mSrcPos && position != mFirstExpPos && position != mSecondExpPos)) {
             height = ViewGroup.LayoutParams.WRAP_CONTENT;
         } else {
             height = calcItemHeight(position, v, invalidChildHeight);
@@ -1863,6 +2942,10 @@ public class DragSortListView extends ListView {
         }
 
         // Finally adjust item visibility
+        adjustItemVisibility(position, v);
+    }
+
+    private void adjustItemVisibility(int position, View v) {
         int oldVis = v.getVisibility();
         int vis = View.VISIBLE;
 
@@ -1880,6 +2963,46 @@ public class DragSortListView extends ListView {
             return 0;
         }
 
+        if (isUniformHeight(position)) {
+            return mUniformChildHeight;
+        }
+
+        final int childHeight;
+        if (mHeightMemoActive) {
+            final int slot = getHeightMemoSlot(position);
+            if (mMemoChildHeights[slot] == -1) {
+                mMemoChildHeights[slot] = lookUpChildHeight(position);
+            }
+            childHeight = mMemoChildHeights[slot];
+        } else {
+            childHeight = lookUpChildHeight(position);
+        }
+
+        if (mUniformItemHeights && mUniformChildHeight <= 0 && childHeight > 0
+                && position >= getHeaderViewsCount()
+                && position < getCount() - getFooterViewsCount()) {
+            mUniformChildHeight = childHeight;
+        }
+
+        return childHeight;
+    }
+
+    /**
+     * @return Index of the height memo entry for position, cleared
+     * if it held another position or a stale generation.
+     */
+    private int getHeightMemoSlot(int position) {
+        final int slot = position & (sHeightMemoSize - 1);
+        if (mMemoGenerations[slot] != mMemoGeneration || mMemoPositions[slot] != position) {
+            mMemoGenerations[slot] = mMemoGeneration;
+            mMemoPositions[slot] = position;
+            mMemoChildHeights[slot] = -1;
+            mMemoItemHeights[slot] = -1;
+        }
+        return slot;
+    }
+
+    private int lookUpChildHeight(int position) {
         View v = getChildAt(position - getFirstVisiblePosition());
 
         if (v != null) {
@@ -1888,38 +3011,53 @@ public class DragSortListView extends ListView {
             return getChildHeight(position, v, false);
         } else {
             // item is offscreen
-            // first check cache for child height at this position
-            int childHeight = mChildHeightCache.get(position);
-            if (childHeight != -1) {
-                return childHeight;
+            // first ask the adapter, if it knows
+            final int numHeaders = getHeaderViewsCount();
+            if (mHeightHintAdapter != null && position >= numHeaders
+                    && position < getCount() - getFooterViewsCount()) {
+                final int hint = mHeightHintAdapter.getEstimatedChildHeight(
+                        position - numHeaders, getChildWidthMeasureSpec());
+                if (hint >= 0) {
+                    ensureHeightIndex();
+                    mHeightIndex.set(position, hint);
+                    return hint;
+                }
+            }
+
+            // then check cache for child height of this item
+            final boolean byId = isChildHeightCacheById();
+            final boolean cacheable = !byId || (position >= getHeaderViewsCount()
+                    && position < getCount() - getFooterViewsCount());
+            final long key = byId ? getItemIdAtPosition(position) : position;
+            int childHeight = -1;
+            if (cacheable) {
+                childHeight = mChildHeightCache.get(key, mWidthMeasureSpec);
+                if (childHeight != -1) {
+                    ensureHeightIndex();
+                    mHeightIndex.set(position, childHeight);
+                    return childHeight;
+                }
             }
 
             final ListAdapter adapter = getAdapter();
             int type = adapter.getItemViewType(position);
 
             // There might be a better place for checking for the following
-            final int typeCount = adapter.getViewTypeCount();
-            if (typeCount != mSampleViewTypes.length) {
-                mSampleViewTypes = new View[typeCount];
-            }
+            mMeasureScrap.setViewTypeCount(adapter.getViewTypeCount());
 
-            if (type >= 0) {
-                if (mSampleViewTypes[type] == null) {
-                    v = adapter.getView(position, null, this);
-                    mSampleViewTypes[type] = v;
-                } else {
-                    v = adapter.getView(position, mSampleViewTypes[type], this);
-                }
-            } else {
-                // type is HEADER_OR_FOOTER or IGNORE
-                v = adapter.getView(position, null, this);
-            }
+            // type HEADER_OR_FOOTER or IGNORE never gets a scrap View
+            v = adapter.getView(position, mMeasureScrap.acquire(type), this);
 
             // current child height is invalid, hence "true" below
             childHeight = getChildHeight(position, v, true);
+            mMeasureScrap.release(type, v);
 
             // cache it because this could have been expensive
-            mChildHeightCache.add(position, childHeight);
+            if (cacheable) {
+                mChildHeightCache.add(key, mWidthMeasureSpec, childHeight);
+            }
+            ensureHeightIndex();
+            mHeightIndex.set(position, childHeight);
 
             return childHeight;
         }
@@ -1931,7 +3069,8 @@ public class DragSortListView extends ListView {
         }
 
         View child;
-        if (position < getHeaderViewsCount() || position >= getCount() - getFooterViewsCount()) {
+        if (position < getHeaderViewsCount() || position >= getCount() - getFooterViewsCount()
+                || !(item instanceof DragSortItemView)) {
             child = item;
         } else {
             child = ((ViewGroup) item).getChildAt(0);
@@ -1954,6 +3093,9 @@ public class DragSortListView extends ListView {
     }
 
     private int calcItemHeight(int position, View item, boolean invalidChildHeight) {
+        if (isUniformHeight(position)) {
+            return calcItemHeight(position, getChildHeight(position));
+        }
         return calcItemHeight(position, getChildHeight(position, item, invalidChildHeight));
     }
 
@@ -2043,6 +3185,14 @@ public class DragSortListView extends ListView {
         return adjust;
     }
 
+    /**
+     * Width MeasureSpec for an item with MATCH_PARENT width.
+     */
+    private int getChildWidthMeasureSpec() {
+        return ViewGroup.getChildMeasureSpec(mWidthMeasureSpec, getListPaddingLeft()
+                + getListPaddingRight(), ViewGroup.LayoutParams.MATCH_PARENT);
+    }
+
     private void measureItem(View item) {
         ViewGroup.LayoutParams lp = item.getLayoutParams();
         if (lp == null) {
@@ -2079,6 +3229,11 @@ public class DragSortListView extends ListView {
             }
             mFloatViewOnMeasured = true; // set to false after layout
         }
+        if (widthMeasureSpec != mWidthMeasureSpec) {
+            // item heights generally depend on width
+            mUniformChildHeight = -1;
+            mHeightIndexValid = false;
+        }
         mWidthMeasureSpec = widthMeasureSpec;
     }
 
@@ -2096,25 +3251,42 @@ public class DragSortListView extends ListView {
             mFloatView.layout(0, 0, mFloatView.getMeasuredWidth(), mFloatView.getMeasuredHeight());
             mFloatViewOnMeasured = false;
         }
+
+        if (mDragState == DRAGGING && !mUniformItemHeights && !mTranslateShuffle) {
+            indexVisibleChildHeights();
+        }
     }
 
     protected boolean onDragTouchEvent(MotionEvent ev) {
         int action = ev.getAction() & MotionEvent.ACTION_MASK;
         switch (action) {
             case MotionEvent.ACTION_CANCEL:
+                mDragMovePending = false;
+                mFrameScheduler.remove(mDragMoveListener);
                 if (mDragState == DRAGGING) {
                     cancelDrag();
                 }
                 doActionUpOrCancel();
                 break;
             case MotionEvent.ACTION_UP:
+                // drop where the finger was lifted
+                flushDragMove();
+                mFrameScheduler.remove(mDragMoveListener);
                 if (mDragState == DRAGGING) {
                     stopDrag(false);
                 }
                 doActionUpOrCancel();
                 break;
             case MotionEvent.ACTION_MOVE:
-                continueDrag((int) ev.getX(), (int) ev.getY());
+                // Digitizers may report several moves per frame. Just
+                // record the touch (saved in mX, mY) and let the frame
+                // loop do the layout work once per frame.
+                if (mVelocityTracker == null) {
+                    mVelocityTracker = VelocityTracker.obtain();
+                }
+                mVelocityTracker.addMovement(ev);
+                mDragMovePending = true;
+                mFrameScheduler.add(mDragMoveListener);
                 break;
         }
 
@@ -2210,6 +3382,19 @@ public class DragSortListView extends ListView {
         mFloatLoc.x = mX - mDragDeltaX;
         mFloatLoc.y = mY - mDragDeltaY;
 
+        mFloatDirtyRect.setEmpty();
+        attachFloatViewToOverlay();
+        if (!mFloatViewInOverlay) {
+            invalidateFloatView();
+        }
+
+        mLastDragY = mY;
+        mDragMovePending = false;
+        mDragVelocityY = 0;
+        if (mVelocityTracker != null) {
+            mVelocityTracker.clear();
+        }
+
         // set src item invisible
         final View srcItem = getChildAt(mSrcPos - getFirstVisiblePosition());
 
@@ -2217,6 +3402,8 @@ public class DragSortListView extends ListView {
             srcItem.setVisibility(View.INVISIBLE);
         }
 
+        initShuffle(srcItem);
+
         if (mTrackDragSort) {
             mDragSortTracker.startTracking();
         }
@@ -2256,6 +3443,16 @@ public class DragSortListView extends ListView {
         mBlockLayoutRequests = true;
 
         updateFloatView();
+        updateFloatViewInOverlay();
+
+        if (mTranslateShuffle) {
+            // items animate their own translations; no layout
+            if ((updateTranslatePositions() || forceInvalidate) && !mFloatViewInOverlay) {
+                invalidateFloatView();
+            }
+            mBlockLayoutRequests = false;
+            return;
+        }
 
         int oldFirstExpPos = mFirstExpPos;
         int oldSecondExpPos = mSecondExpPos;
@@ -2268,10 +3465,13 @@ public class DragSortListView extends ListView {
 
             setSelectionFromTop(movePos, moveItem.getTop() + scroll - getPaddingTop());
             layoutChildren();
-        }
 
-        if (updated || forceInvalidate) {
+            // rows moved; redraw everything
             invalidate();
+            setFloatBounds(mFloatDirtyRect);
+        } else if (forceInvalidate && !mFloatViewInOverlay) {
+            // only the floating View moved
+            invalidateFloatView();
         }
 
         mBlockLayoutRequests = false;
@@ -2336,14 +3536,36 @@ public class DragSortListView extends ListView {
         mFloatViewMid = mFloatLoc.y + mFloatViewHeightHalf;
     }
 
+    /**
+     * Invalidate the union of the old and new floating View bounds.
+     */
+    private void invalidateFloatView() {
+        setFloatBounds(mTempRect);
+        mFloatDirtyRect.union(mTempRect);
+        invalidate(mFloatDirtyRect);
+        mFloatDirtyRect.set(mTempRect);
+    }
+
+    private void setFloatBounds(Rect r) {
+        r.set(mFloatLoc.x, mFloatLoc.y,
+                mFloatLoc.x + mFloatView.getMeasuredWidth(),
+                mFloatLoc.y + mFloatView.getMeasuredHeight());
+    }
+
     private void destroyFloatView() {
         if (mFloatView != null) {
+            detachFloatViewFromOverlay();
             mFloatView.setVisibility(GONE);
             if (mFloatViewManager != null) {
                 mFloatViewManager.onDestroyFloatView(mFloatView);
             }
             mFloatView = null;
-            invalidate();
+            // rows are re-laid out by the caller; only the float
+            // View's last bounds need clearing here
+            if (!mFloatDirtyRect.isEmpty()) {
+                invalidate(mFloatDirtyRect);
+                mFloatDirtyRect.setEmpty();
+            }
         }
     }
 
@@ -2494,6 +3716,39 @@ public class DragSortListView extends ListView {
         setRemoveListener(listener);
     }
 
+    /**
+     * Implement this in your ListAdapter (or pass it to
+     * {@link #setHeightHintAdapter(HeightHintAdapter)}) if you can
+     * tell the height of an item View without building it. During a
+     * drag-sort, DSLV sometimes needs the height of an offscreen
+     * item; without a hint it must get the View from the ListAdapter
+     * and measure it, which can be expensive for rich item layouts.
+     */
+    public interface HeightHintAdapter {
+        /**
+         * @param position Position in your input ListAdapter (headers
+         * excluded).
+         * @param widthMeasureSpec The width MeasureSpec DSLV would
+         * measure the item View with.
+         *
+         * @return Measured height in pixels of the item View at
+         * <code>position</code>, or a negative number if unknown, in
+         * which case DSLV inflates and measures the View.
+         */
+        public int getEstimatedChildHeight(int position, int widthMeasureSpec);
+    }
+
+    /**
+     * Set a source of offscreen item heights. Called automatically
+     * by {@link #setAdapter(ListAdapter)} if the ListAdapter
+     * implements {@link HeightHintAdapter}.
+     *
+     * @param hint Pass null to always measure offscreen items.
+     */
+    public void setHeightHintAdapter(HeightHintAdapter hint) {
+        mHeightHintAdapter = hint;
+    }
+
     /**
      * Completely custom scroll speed profile. Default increases linearly
      * with position and is constant in time. Create your own by implementing
@@ -2516,80 +3771,37 @@ public class DragSortListView extends ListView {
      * ListView has no way of knowing which items have moved where, and cannot
      * update the check state accordingly.
      * <p>
-     * A word of warning about a "feature" in Android that you may run into when
-     * dealing with movable list items: for an adapter that <em>does</em> have
-     * stable IDs, ListView will attempt to locate each item based on its ID and
-     * move the check state from the item's old position to the new position —
-     * which is all fine and good (and removes the need for calling this
-     * function), except for the half-baked approach. Apparently to save time in
-     * the naive algorithm used, ListView will only search for an ID in the
-     * close neighborhood of the old position. If the user moves an item too far
-     * (specifically, more than 20 rows away), ListView will give up and just
-     * force the item to be unchecked. So if there is a reasonable chance that
-     * the user will move items more than 20 rows away from the original
-     * position, you may wish to use an adapter with unstable IDs and call this
-     * method manually instead.
+     * For an adapter that <em>does</em> have stable IDs, DragSortListView
+     * keeps the check state by ID itself and this method does nothing. (Plain
+     * ListView also migrates check state by ID, but only searches 20 rows
+     * around the old position and unchecks items moved further than that.)
      * 
      * @param from
      * @param to
      */
     public void moveCheckState(int from, int to) {
-        // This method runs in O(n log n) time (n being the number of list
-        // items). The bottleneck is the call to AbsListView.setItemChecked,
-        // which is O(log n) because of the binary search involved in calling
-        // SparseBooleanArray.put().
-        //
-        // To improve on the average time, we minimize the number of calls to
-        // setItemChecked by only calling it for items that actually have a
-        // changed state. This is achieved by building a list containing the
-        // start and end of the "runs" of checked items, and then moving the
-        // runs. Note that moving an item from A to B is essentially a rotation
-        // of the range of items in [A, B]. Let's say we have
-        // . . U V X Y Z . .
-        // and move U after Z. This is equivalent to a rotation one step to the
-        // left within the range you are moving across:
-        // . . V X Y Z U . .
-        //
-        // So, to perform the move we enumerate all the runs within the move
-        // range, then rotate each run one step to the left or right (depending
-        // on move direction). For example, in the list:
-        // X X . X X X . X
-        // we have two runs. One begins at the last item of the list and wraps
-        // around to the beginning, ending at position 1. The second begins at
-        // position 3 and ends at position 5. To rotate a run, regardless of
-        // length, we only need to set a check mark at one end of the run, and
-        // clear a check mark at the other end:
-        // X . X X X . X X
+        // Without stable ids ListView keeps no per-id check state, and
+        // a move keeps the number of checked items, so the check state
+        // array is rewritten directly instead of through setItemChecked
+        // (see CheckStateShifter). Items outside the move range are not
+        // touched.
+        if (isTrackingCheckedIds()) {
+            mCheckedPositionsDirty = true;
+            return;
+        }
+
+        // getCheckedItemPositions() hands out ListView's own check state
+        // array, not a copy, on every platform version; writing to it
+        // is what changes the check state.
         SparseBooleanArray cip = getCheckedItemPositions();
-        int rangeStart = from;
-        int rangeEnd = to;
-        if (to < from) {
-            rangeStart = to;
-            rangeEnd = from;
-        }
-        rangeEnd += 1;
-
-        int[] runStart = new int[cip.size()];
-        int[] runEnd = new int[cip.size()];
-        int runCount = buildRunList(cip, rangeStart, rangeEnd, runStart, runEnd);
-        if (runCount == 1 && (runStart[0] == runEnd[0])) {
-            // Special case where all items are checked, we can never set any
-            // item to false like we do below.
+        if (cip == null || cip.size() == 0) {
             return;
         }
 
-        if (from < to) {
-            for (int i = 0; i != runCount; i++) {
-                setItemChecked(rotate(runStart[i], -1, rangeStart, rangeEnd), true);
-                setItemChecked(rotate(runEnd[i], -1, rangeStart, rangeEnd), false);
-            }
+        mCheckStateShifter.move(cip, from, to);
 
-        } else {
-            for (int i = 0; i != runCount; i++) {
-                setItemChecked(runStart[i], false);
-                setItemChecked(runEnd[i], true);
-            }
-        }
+        // same refresh setItemChecked asks for
+        requestLayout();
     }
 
     /**
@@ -2606,109 +3818,238 @@ public class DragSortListView extends ListView {
      * @param position
      */
     public void removeCheckState(int position) {
+        if (isTrackingCheckedIds()) {
+            mCheckedPositionsDirty = true;
+            return;
+        }
+
         SparseBooleanArray cip = getCheckedItemPositions();
 
-        if (cip.size() == 0)
+        if (cip == null || cip.size() == 0)
             return;
-        int[] runStart = new int[cip.size()];
-        int[] runEnd = new int[cip.size()];
-        int rangeStart = position;
-        int rangeEnd = cip.keyAt(cip.size() - 1) + 1;
-        int runCount = buildRunList(cip, rangeStart, rangeEnd, runStart, runEnd);
-        for (int i = 0; i != runCount; i++) {
-            if (!(runStart[i] == position || (runEnd[i] < runStart[i] && runEnd[i] > position))) {
-                // Only set a new check mark in front of this run if it does
-                // not contain the deleted position. If it does, we only need
-                // to make it one check mark shorter at the end.
-                setItemChecked(rotate(runStart[i], -1, rangeStart, rangeEnd), true);
+
+        // Let ListView fix its checked count, then shift the rest up.
+        if (cip.get(position)) {
+            setItemChecked(position, false);
+            // single choice mode clears the whole array
+            if (cip.size() == 0) {
+                return;
             }
-            setItemChecked(rotate(runEnd[i], -1, rangeStart, rangeEnd), false);
         }
+
+        // cip is ListView's own check state array (see moveCheckState)
+        mCheckStateShifter.remove(cip, position);
+
+        requestLayout();
     }
 
-    private static int buildRunList(SparseBooleanArray cip, int rangeStart, int rangeEnd, 
-            int[] runStart, int[] runEnd) {
-        
-        int runCount = 0;
+    /**
+     * @return The checked positions, or null if there are none.
+     */
+    private SparseBooleanArray copyCheckedPositions() {
+        final SparseBooleanArray cip = super.getCheckedItemPositions();
+        if (cip == null) {
+            return null;
+        }
+        final SparseBooleanArray copy = new SparseBooleanArray();
+        for (int i = 0; i < cip.size(); i++) {
+            if (cip.valueAt(i)) {
+                copy.append(cip.keyAt(i), true);
+            }
+        }
+        return copy.size() == 0 ? null : copy;
+    }
 
-        int i = findFirstSetIndex(cip, rangeStart, rangeEnd);
-        if (i == -1)
-            return 0;
+    /**
+     * @return True if ListView tracks checked items by id too.
+     */
+    private boolean hasStableCheckIds() {
+        return mAdapterWrapper != null && mAdapterWrapper.hasStableIds();
+    }
 
-        int position = cip.keyAt(i);
-        int currentRunStart = position;
-        int currentRunEnd = currentRunStart + 1;
-        for (i++; i < cip.size() && (position = cip.keyAt(i)) < rangeEnd; i++) {
-            if (!cip.valueAt(i)) // not checked => not interesting
-                continue;
-            if (position == currentRunEnd) {
-                currentRunEnd++;
-            } else {
-                runStart[runCount] = currentRunStart;
-                runEnd[runCount] = currentRunEnd;
-                runCount++;
-                currentRunStart = position;
-                currentRunEnd = position + 1;
+    /**
+     * @return True if the check state is kept by id in mCheckedIds.
+     */
+    private boolean isTrackingCheckedIds() {
+        return mCheckedIds != null && getChoiceMode() != CHOICE_MODE_NONE
+                && hasStableCheckIds();
+    }
+
+    /**
+     * Start tracking checked ids from ListView's current check
+     * state.
+     */
+    private void loadCheckedIds() {
+        if (mCheckedIds == null) {
+            // called during ListView construction
+            return;
+        }
+        mCheckedIds.clear();
+        mCheckedPositionsDirty = false;
+        if (isTrackingCheckedIds()) {
+            final long[] ids = super.getCheckedItemIds();
+            if (ids != null) {
+                for (int i = 0; i < ids.length; i++) {
+                    mCheckedIds.add(ids[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the check state of the item at ListView
+     * <code>position</code> in mCheckedIds.
+     */
+    private void updateCheckedId(int position, boolean checked) {
+        final int pos = position - getHeaderViewsCount();
+        if (pos < 0 || pos >= mAdapterWrapper.getCount()) {
+            return;
+        }
+        final long id = mAdapterWrapper.getItemId(pos);
+        if (checked) {
+            mCheckedIds.add(id);
+        } else {
+            mCheckedIds.remove(id);
+        }
+    }
+
+    /**
+     * Bring ListView's check state for one item in line with
+     * mCheckedIds. Called as items are bound, so the visible range
+     * is always right even while the rest of ListView's check state
+     * is stale.
+     *
+     * @param position Position in the input ListAdapter.
+     */
+    private void syncCheckState(int position) {
+        if (!mCheckedPositionsDirty || mDragState != IDLE || !isTrackingCheckedIds()) {
+            return;
+        }
+        final int listPos = position + getHeaderViewsCount();
+        final boolean checked = mCheckedIds.contains(mAdapterWrapper.getItemId(position));
+        if (checked != super.isItemChecked(listPos)) {
+            super.setItemChecked(listPos, checked);
+        }
+    }
+
+    /**
+     * Bring all of ListView's check state in line with mCheckedIds,
+     * if items may have moved since the last time. This is linear in
+     * the number of items, so it is only done when the whole state
+     * is asked for. Ids no longer in the ListAdapter are dropped.
+     */
+    private void syncCheckStates() {
+        if (!mCheckedPositionsDirty) {
+            return;
+        }
+        mCheckedPositionsDirty = false;
+
+        final LongHashSet found = mScratchIds;
+        found.clear();
+        final int numHeaders = getHeaderViewsCount();
+        final int count = mAdapterWrapper.getCount();
+        for (int i = 0; i < count; i++) {
+            final long id = mAdapterWrapper.getItemId(i);
+            final boolean checked = mCheckedIds.contains(id);
+            if (checked) {
+                found.add(id);
+            }
+            if (checked != super.isItemChecked(i + numHeaders)) {
+                super.setItemChecked(i + numHeaders, checked);
             }
         }
 
-        if (currentRunEnd == rangeEnd) {
-            // rangeStart and rangeEnd are equivalent positions so to be
-            // consistent we translate them to the same integer value. That way
-            // we can check whether a run covers the entire range by just
-            // checking if the start equals the end position.
-            currentRunEnd = rangeStart;
+        mScratchIds = mCheckedIds;
+        mCheckedIds = found;
+    }
+
+    @Override
+    public boolean performItemClick(View view, int position, long id) {
+        final boolean handled = super.performItemClick(view, position, id);
+        if (isTrackingCheckedIds()) {
+            if (getChoiceMode() == CHOICE_MODE_SINGLE) {
+                mCheckedIds.clear();
+            }
+            updateCheckedId(position, super.isItemChecked(position));
         }
-        runStart[runCount] = currentRunStart;
-        runEnd[runCount] = currentRunEnd;
-        runCount++;
+        return handled;
+    }
 
-        if (runCount > 1) {
-            if (runStart[0] == rangeStart && runEnd[runCount - 1] == rangeStart) {
-                // The last run ends at the end of the range, and the first run
-                // starts at the beginning of the range. So they are actually
-                // part of the same run, except they wrap around the end of the
-                // range. To avoid adjacent runs, we need to merge them.
-                runStart[0] = runStart[runCount - 1];
-                runCount--;
+    @Override
+    public void setItemChecked(int position, boolean value) {
+        super.setItemChecked(position, value);
+        if (isTrackingCheckedIds()) {
+            if (value && getChoiceMode() == CHOICE_MODE_SINGLE) {
+                mCheckedIds.clear();
             }
+            updateCheckedId(position, value);
+        }
+    }
+
+    @Override
+    public void clearChoices() {
+        super.clearChoices();
+        if (mCheckedIds != null) {
+            mCheckedIds.clear();
+            mCheckedPositionsDirty = false;
         }
-        return runCount;
     }
 
-    private static int rotate(int value, int offset, int lowerBound, int upperBound) {
-        int windowSize = upperBound - lowerBound;
+    @Override
+    public void setChoiceMode(int choiceMode) {
+        super.setChoiceMode(choiceMode);
+        loadCheckedIds();
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        super.onRestoreInstanceState(state);
+        loadCheckedIds();
+    }
 
-        value += offset;
-        if (value < lowerBound) {
-            value += windowSize;
-        } else if (value >= upperBound) {
-            value -= windowSize;
+    /**
+     * With stable ids, answered from DragSortListView's own check
+     * state, which follows items however far they are dragged.
+     */
+    @Override
+    public boolean isItemChecked(int position) {
+        if (isTrackingCheckedIds()) {
+            final int pos = position - getHeaderViewsCount();
+            return pos >= 0 && pos < mAdapterWrapper.getCount()
+                    && mCheckedIds.contains(mAdapterWrapper.getItemId(pos));
         }
-        return value;
+        return super.isItemChecked(position);
     }
 
-    private static int findFirstSetIndex(SparseBooleanArray sba, int rangeStart, int rangeEnd) {
-        int size = sba.size();
-        int i = insertionIndexForKey(sba, rangeStart);
-        while (i < size && sba.keyAt(i) < rangeEnd && !sba.valueAt(i))
-            i++;
-        if (i == size || sba.keyAt(i) >= rangeEnd)
-            return -1;
-        return i;
+    @Override
+    public int getCheckedItemCount() {
+        if (isTrackingCheckedIds()) {
+            syncCheckStates();
+            return mCheckedIds.size();
+        }
+        return super.getCheckedItemCount();
+    }
+
+    @Override
+    public long[] getCheckedItemIds() {
+        if (isTrackingCheckedIds()) {
+            syncCheckStates();
+            return mCheckedIds.toArray();
+        }
+        return super.getCheckedItemIds();
     }
 
-    private static int insertionIndexForKey(SparseBooleanArray sba, int key) {
-        int low = 0;
-        int high = sba.size();
-        while (high - low > 0) {
-            int middle = (low + high) >> 1;
-            if (sba.keyAt(middle) < key)
-                low = middle + 1;
-            else
-                high = middle;
+    /**
+     * With stable ids, ListView's positional check state is only
+     * kept current for bound items after a drop or remove; this
+     * brings the rest up to date first.
+     */
+    @Override
+    public SparseBooleanArray getCheckedItemPositions() {
+        if (isTrackingCheckedIds()) {
+            syncCheckStates();
         }
-        return low;
+        return super.getCheckedItemPositions();
     }
 
     /**
@@ -2734,7 +4075,66 @@ public class DragSortListView extends ListView {
         float getSpeed(float w, long t);
     }
 
-    private class DragScroller implements Runnable {
+    /**
+     * Measures the offscreen items the DragScroller is about to
+     * scroll into view while the UI thread is idle, so their
+     * heights are in the cache/height index before a scroll frame
+     * needs them. One item per idle callback.
+     */
+    private class PreMeasurer implements MessageQueue.IdleHandler {
+
+        private boolean mRegistered = false;
+
+        public void schedule() {
+            if (!mRegistered && !mUniformItemHeights && !mTranslateShuffle) {
+                Looper.myQueue().addIdleHandler(this);
+                mRegistered = true;
+            }
+        }
+
+        public void cancel() {
+            if (mRegistered) {
+                Looper.myQueue().removeIdleHandler(this);
+                mRegistered = false;
+            }
+        }
+
+        @Override
+        public boolean queueIdle() {
+            final int dir = mDragScroller.getScrollDir();
+            if (mDragState != DRAGGING || dir == DragScroller.STOP || getChildCount() == 0) {
+                mRegistered = false;
+                return false;
+            }
+
+            ensureHeightIndex();
+
+            final int count = getCount();
+            final int step = dir == DragScroller.DOWN ? 1 : -1;
+            int pos = dir == DragScroller.DOWN ? getLastVisiblePosition() : getFirstVisiblePosition();
+            for (int i = 0; i < sPreMeasureCount; ++i) {
+                pos += step;
+                if (pos < 0 || pos >= count) {
+                    break;
+                }
+                if (pos != mSrcPos && !mHeightIndex.isKnown(pos)) {
+                    // records the height in the cache and index
+                    getChildHeight(pos);
+                    return true;
+                }
+            }
+
+            // all caught up; the next scroll step reschedules
+            mRegistered = false;
+            return false;
+        }
+    }
+
+    private static final int sPreMeasureCount = 8;
+
+    private PreMeasurer mPreMeasurer = new PreMeasurer();
+
+    private class DragScroller implements FrameListener {
 
         private boolean mAbort;
 
@@ -2772,13 +4172,15 @@ public class DragSortListView extends ListView {
                 tStart = SystemClock.uptimeMillis();
                 mPrevTime = tStart;
                 scrollDir = dir;
-                post(this);
+                mFrameScheduler.add(this);
+                mPreMeasurer.schedule();
             }
         }
 
         public void stopScrolling(boolean now) {
             if (now) {
-                DragSortListView.this.removeCallbacks(this);
+                mFrameScheduler.remove(this);
+                mPreMeasurer.cancel();
                 mScrolling = false;
             } else {
                 mAbort = true;
@@ -2786,10 +4188,10 @@ public class DragSortListView extends ListView {
         }
 
         @Override
-        public void run() {
+        public boolean onFrame(long frameTime) {
             if (mAbort) {
                 mScrolling = false;
-                return;
+                return false;
             }
 
             final int first = getFirstVisiblePosition();
@@ -2805,11 +4207,11 @@ public class DragSortListView extends ListView {
                 View v = getChildAt(0);
                 if (v == null) {
                     mScrolling = false;
-                    return;
+                    return false;
                 } else {
                     if (first == 0 && v.getTop() == padTop) {
                         mScrolling = false;
-                        return;
+                        return false;
                     }
                 }
                 mScrollSpeed = mScrollProfile.getSpeed((mUpScrollStartYF - maxY)
@@ -2818,19 +4220,19 @@ public class DragSortListView extends ListView {
                 View v = getChildAt(last - first);
                 if (v == null) {
                     mScrolling = false;
-                    return;
+                    return false;
                 } else {
                     if (last == count - 1 && v.getBottom() <= listHeight + padTop) {
                         mScrolling = false;
-                        return;
+                        return false;
                     }
                 }
                 mScrollSpeed = -mScrollProfile.getSpeed((minY - mDownScrollStartYF)
                         / mDragDownScrollHeight, mPrevTime);
             }
 
-            mCurrTime = SystemClock.uptimeMillis();
-            dt = (float) (mCurrTime - mPrevTime);
+            mCurrTime = frameTime;
+            dt = (float) Math.max(0, mCurrTime - mPrevTime);
 
             // dy is change in View position of a list item; i.e. positive dy
             // means user is scrolling up (list item moves down the screen,
@@ -2854,6 +4256,9 @@ public class DragSortListView extends ListView {
                 top = padTop;
             }
 
+            // warm up heights of the items scrolling in next
+            mPreMeasurer.schedule();
+
             // always do scroll
             mBlockLayoutRequests = true;
 
@@ -2868,7 +4273,7 @@ public class DragSortListView extends ListView {
 
             mPrevTime = mCurrTime;
 
-            post(this);
+            return true;
         }
     }
 
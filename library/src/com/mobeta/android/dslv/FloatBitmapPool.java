@@ -0,0 +1,123 @@
+package com.mobeta.android.dslv;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Small pool of mutable Bitmaps for floating View snapshots.
+ * A drag-sort only ever needs one snapshot at a time, but rows of
+ * different heights want different sizes, so a few Bitmaps are
+ * kept and matched by size.
+ *
+ * A pooled Bitmap is reused as-is when its dimensions and config
+ * match. On KitKat and up, any pooled Bitmap whose allocation is
+ * large enough is reconfigured to the requested size instead; the
+ * smallest such Bitmap is chosen.
+ */
+class FloatBitmapPool {
+
+    private final Bitmap[] mBitmaps;
+    private int mSize = 0;
+
+    public FloatBitmapPool(int maxSize) {
+        mBitmaps = new Bitmap[Math.max(1, maxSize)];
+    }
+
+    /**
+     * @return A mutable Bitmap of the given size and config, taken
+     * from the pool if possible. Contents are undefined.
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        int best = -1;
+        for (int i = 0; i < mSize; i++) {
+            final Bitmap b = mBitmaps[i];
+            if (b.getWidth() == width && b.getHeight() == height
+                    && b.getConfig() == config) {
+                best = i;
+                break;
+            }
+        }
+
+        if (best == -1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            best = findReconfigurable(width, height, config);
+        }
+
+        if (best == -1) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        final Bitmap b = take(best);
+        if (b.getWidth() != width || b.getHeight() != height || b.getConfig() != config) {
+            reconfigure(b, width, height, config);
+        }
+        return b;
+    }
+
+    /**
+     * Return a Bitmap to the pool. If the pool is full, the oldest
+     * pooled Bitmap is recycled to make room.
+     */
+    public void release(Bitmap b) {
+        if (b == null || b.isRecycled() || !b.isMutable()) {
+            return;
+        }
+
+        if (mSize == mBitmaps.length) {
+            take(0).recycle();
+        }
+        mBitmaps[mSize++] = b;
+    }
+
+    /**
+     * Recycle all pooled Bitmaps.
+     */
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mBitmaps[i].recycle();
+            mBitmaps[i] = null;
+        }
+        mSize = 0;
+    }
+
+    private Bitmap take(int index) {
+        final Bitmap b = mBitmaps[index];
+        System.arraycopy(mBitmaps, index + 1, mBitmaps, index, mSize - index - 1);
+        mBitmaps[--mSize] = null;
+        return b;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private int findReconfigurable(int width, int height, Bitmap.Config config) {
+        final long needed = (long) width * height * bytesPerPixel(config);
+
+        int best = -1;
+        int bestBytes = Integer.MAX_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            final int bytes = mBitmaps[i].getAllocationByteCount();
+            if (bytes >= needed && bytes < bestBytes) {
+                best = i;
+                bestBytes = bytes;
+            }
+        }
+        return best;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap b, int width, int height, Bitmap.Config config) {
+        b.reconfigure(width, height, config);
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+}
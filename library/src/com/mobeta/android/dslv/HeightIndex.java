@@ -0,0 +1,156 @@
+package com.mobeta.android.dslv;
+
+import java.util.Arrays;
+
+/**
+ * Binary indexed (Fenwick) tree over the child heights of
+ * ListView positions. DragSortListView records heights here as
+ * items are measured, and the tree answers "how tall are rows
+ * [a, b)?" and "which row contains offset y?" in O(log n).
+ *
+ * Rows that have never been measured count as a default height,
+ * which is taken from the first measured row. This makes the
+ * index an estimate for unmeasured rows; callers that need exact
+ * geometry must still consult the Views.
+ */
+class HeightIndex {
+
+    private static final int UNKNOWN = -1;
+
+    /**
+     * Fenwick tree, 1-based.
+     */
+    private int[] mTree = new int[1];
+
+    /**
+     * Raw child height for each position, or UNKNOWN.
+     */
+    private int[] mHeights = new int[0];
+
+    private int mSize = 0;
+
+    /**
+     * Height assumed for rows that have not been measured.
+     */
+    private int mDefaultHeight = 0;
+
+    /**
+     * Clears the index and sizes it for <code>size</code> rows.
+     */
+    public void reset(int size) {
+        if (mHeights.length < size) {
+            mHeights = new int[size];
+            mTree = new int[size + 1];
+        }
+        mSize = size;
+        mDefaultHeight = 0;
+        Arrays.fill(mHeights, 0, size, UNKNOWN);
+        Arrays.fill(mTree, 0, size + 1, 0);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isKnown(int position) {
+        return position >= 0 && position < mSize && mHeights[position] != UNKNOWN;
+    }
+
+    /**
+     * @return The recorded child height at position, or the
+     * default height if the row has not been measured.
+     */
+    public int get(int position) {
+        final int h = mHeights[position];
+        return h == UNKNOWN ? mDefaultHeight : h;
+    }
+
+    /**
+     * Record the measured child height of the row at position.
+     */
+    public void set(int position, int height) {
+        if (position < 0 || position >= mSize || height < 0) {
+            return;
+        }
+
+        if (mDefaultHeight == 0 && height > 0) {
+            // first real measurement; use it for all unknown rows
+            mHeights[position] = height;
+            setDefaultHeight(height);
+            return;
+        }
+
+        final int delta = height - get(position);
+        mHeights[position] = height;
+        if (delta != 0) {
+            for (int i = position + 1; i <= mSize; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+    }
+
+    /**
+     * Sum of child heights of rows [0, position).
+     */
+    public int prefixSum(int position) {
+        int sum = 0;
+        for (int i = Math.min(position, mSize); i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Sum of child heights of rows [from, to).
+     */
+    public int sum(int from, int to) {
+        return prefixSum(to) - prefixSum(from);
+    }
+
+    /**
+     * Find the row containing <code>offset</code>, where offset 0
+     * is the top of row 0 and each row occupies its child height
+     * plus <code>rowExtra</code> pixels (e.g. the divider height).
+     *
+     * @return The row position, clamped to [0, size - 1]; -1 if
+     * the index is empty.
+     */
+    public int find(int offset, int rowExtra) {
+        if (mSize == 0) {
+            return -1;
+        }
+
+        int pos = 0;
+        int step = Integer.highestOneBit(mSize);
+        // Each tree node visited at a given step covers exactly
+        // `step` rows, hence step * rowExtra.
+        for (; step > 0; step >>= 1) {
+            final int next = pos + step;
+            if (next <= mSize) {
+                final int extent = mTree[next] + step * rowExtra;
+                if (extent <= offset) {
+                    pos = next;
+                    offset -= extent;
+                }
+            }
+        }
+
+        return Math.min(pos, mSize - 1);
+    }
+
+    private void setDefaultHeight(int height) {
+        mDefaultHeight = height;
+
+        // linear-time rebuild
+        for (int i = 1; i <= mSize; i++) {
+            mTree[i] = get(i - 1);
+        }
+        for (int i = 1; i <= mSize; i++) {
+            final int parent = i + (i & -i);
+            if (parent <= mSize) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+}
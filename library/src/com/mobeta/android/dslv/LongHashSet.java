@@ -0,0 +1,171 @@
+package com.mobeta.android.dslv;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs with O(1) add, remove and lookup. Nothing
+ * is boxed, and nothing is allocated except when the set grows.
+ *
+ * Keys are stored densely in insertion order (a removal moves the
+ * last key into the gap), so they can be walked with
+ * {@link #keyAt(int)}. The key index is an open-addressing hash
+ * table with linear probing that stores key indices; deletions
+ * shift later entries back instead of leaving tombstones.
+ */
+class LongHashSet {
+
+    private static final int NONE = -1;
+
+    private long[] mKeys;
+    private int mSize;
+
+    /**
+     * Hash table of key index + 1 (0 marks an empty slot).
+     */
+    private int[] mTable;
+    private int mShift;
+
+    public LongHashSet() {
+        this(8);
+    }
+
+    public LongHashSet(int capacity) {
+        allocate(Math.max(4, capacity));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param index Between 0 and <code>size() - 1</code>. Indices
+     * are only stable while the set is not modified.
+     */
+    public long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    public boolean contains(long key) {
+        return findSlot(key) != NONE;
+    }
+
+    /**
+     * @return True if key was not already present.
+     */
+    public boolean add(long key) {
+        if (findSlot(key) != NONE) {
+            return false;
+        }
+        if (mSize == mKeys.length) {
+            grow();
+        }
+        mKeys[mSize] = key;
+        insert(key, mSize);
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @return True if key was present.
+     */
+    public boolean remove(long key) {
+        final int slot = findSlot(key);
+        if (slot == NONE) {
+            return false;
+        }
+        final int e = mTable[slot] - 1;
+        clearSlot(slot);
+
+        // keep keys dense: move the last key into the gap
+        final int last = --mSize;
+        if (e != last) {
+            final long moved = mKeys[last];
+            mKeys[e] = moved;
+            mTable[findSlot(moved)] = e + 1;
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(mTable, 0);
+        mSize = 0;
+    }
+
+    /**
+     * @return A new array holding the keys.
+     */
+    public long[] toArray() {
+        final long[] keys = new long[mSize];
+        System.arraycopy(mKeys, 0, keys, 0, mSize);
+        return keys;
+    }
+
+    private void allocate(int capacity) {
+        // keep load factor at or below 1/2
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        mShift = 64 - Integer.numberOfTrailingZeros(tableSize);
+        mKeys = new long[capacity];
+        mTable = new int[tableSize];
+    }
+
+    private void grow() {
+        final long[] keys = mKeys;
+        allocate(2 * keys.length);
+        System.arraycopy(keys, 0, mKeys, 0, mSize);
+        for (int i = 0; i < mSize; i++) {
+            insert(mKeys[i], i);
+        }
+    }
+
+    private void insert(long key, int e) {
+        final int mask = mTable.length - 1;
+        int slot = home(key);
+        while (mTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mTable[slot] = e + 1;
+    }
+
+    private int home(long key) {
+        // Fibonacci hashing; top bits of the product index the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+    }
+
+    private int findSlot(long key) {
+        final int mask = mTable.length - 1;
+        int slot = home(key);
+        int e;
+        while ((e = mTable[slot]) != 0) {
+            if (mKeys[e - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void clearSlot(int hole) {
+        final int mask = mTable.length - 1;
+
+        // shift back any entries whose probe sequence passed
+        // through the hole
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            final int other = mTable[j];
+            if (other == 0) {
+                break;
+            }
+            final int k = home(mKeys[other - 1]);
+            // move the entry at j into the hole unless its home
+            // slot lies cyclically in (hole, j]
+            final boolean stays = hole <= j ? (hole < k && k <= j) : (hole < k || k <= j);
+            if (!stays) {
+                mTable[hole] = other;
+                hole = j;
+            }
+        }
+        mTable[hole] = 0;
+    }
+
+}
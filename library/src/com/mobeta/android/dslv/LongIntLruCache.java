@@ -0,0 +1,231 @@
+package com.mobeta.android.dslv;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity least-recently-used map from long keys to int
+ * values. Lookups, insertions and evictions are O(1) and allocate
+ * nothing, so the cache can be used freely on the UI thread during
+ * a drag-sort.
+ *
+ * Entries live in parallel arrays and are threaded on an intrusive
+ * doubly-linked list in access order. The key index is an
+ * open-addressing hash table with linear probing that stores entry
+ * indices; deletions shift later entries back instead of leaving
+ * tombstones.
+ */
+class LongIntLruCache {
+
+    private static final int NONE = -1;
+
+    private long[] mKeys;
+    private int[] mValues;
+
+    /**
+     * Access-order list over entry indices. mHead is the least
+     * recently used entry, mTail the most recently used one. mNext
+     * also chains the free entries.
+     */
+    private int[] mPrev;
+    private int[] mNext;
+    private int mHead;
+    private int mTail;
+    private int mFree;
+
+    /**
+     * Hash table of entry index + 1 (0 marks an empty slot).
+     */
+    private int[] mTable;
+    private int mShift;
+
+    private int mSize;
+    private int mCapacity;
+
+    public LongIntLruCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Change the capacity. This clears the cache and is the only
+     * operation that allocates.
+     */
+    public void setCapacity(int capacity) {
+        mCapacity = Math.max(1, capacity);
+
+        // keep load factor at or below 1/2
+        int tableSize = Integer.highestOneBit(mCapacity * 2 - 1) << 1;
+        mShift = 64 - Integer.numberOfTrailingZeros(tableSize);
+
+        mKeys = new long[mCapacity];
+        mValues = new int[mCapacity];
+        mPrev = new int[mCapacity];
+        mNext = new int[mCapacity];
+        mTable = new int[tableSize];
+        clear();
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mTable, 0);
+        for (int i = 0; i < mCapacity; i++) {
+            mNext[i] = i + 1 < mCapacity ? i + 1 : NONE;
+        }
+        mFree = 0;
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+    /**
+     * @return The value mapped to key, or <code>missing</code>. A hit
+     * marks the entry most recently used.
+     */
+    public int get(long key, int missing) {
+        final int slot = findSlot(key);
+        if (slot == NONE) {
+            return missing;
+        }
+        final int e = mTable[slot] - 1;
+        moveToTail(e);
+        return mValues[e];
+    }
+
+    public boolean containsKey(long key) {
+        return findSlot(key) != NONE;
+    }
+
+    /**
+     * Map key to value, evicting the least recently used entry if
+     * the cache is full.
+     */
+    public void put(long key, int value) {
+        int slot = findSlot(key);
+        if (slot != NONE) {
+            final int e = mTable[slot] - 1;
+            mValues[e] = value;
+            moveToTail(e);
+            return;
+        }
+
+        if (mSize == mCapacity) {
+            removeEntry(mHead);
+        }
+
+        final int e = mFree;
+        mFree = mNext[e];
+        mKeys[e] = key;
+        mValues[e] = value;
+        linkTail(e);
+        mSize++;
+
+        slot = home(key);
+        while (mTable[slot] != 0) {
+            slot = (slot + 1) & (mTable.length - 1);
+        }
+        mTable[slot] = e + 1;
+    }
+
+    /**
+     * @return True if key was present.
+     */
+    public boolean remove(long key) {
+        final int slot = findSlot(key);
+        if (slot == NONE) {
+            return false;
+        }
+        removeEntry(mTable[slot] - 1);
+        return true;
+    }
+
+    private int home(long key) {
+        // Fibonacci hashing; top bits of the product index the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+    }
+
+    private int findSlot(long key) {
+        final int mask = mTable.length - 1;
+        int slot = home(key);
+        int e;
+        while ((e = mTable[slot]) != 0) {
+            if (mKeys[e - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void removeEntry(int e) {
+        final int mask = mTable.length - 1;
+
+        // find and clear the table slot, shifting back any entries
+        // whose probe sequence passed through it
+        int hole = home(mKeys[e]);
+        while (mTable[hole] != e + 1) {
+            hole = (hole + 1) & mask;
+        }
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            final int other = mTable[j];
+            if (other == 0) {
+                break;
+            }
+            final int k = home(mKeys[other - 1]);
+            // move the entry at j into the hole unless its home
+            // slot lies cyclically in (hole, j]
+            final boolean stays = hole <= j ? (hole < k && k <= j) : (hole < k || k <= j);
+            if (!stays) {
+                mTable[hole] = other;
+                hole = j;
+            }
+        }
+        mTable[hole] = 0;
+
+        unlink(e);
+        mNext[e] = mFree;
+        mFree = e;
+        mSize--;
+    }
+
+    private void moveToTail(int e) {
+        if (e != mTail) {
+            unlink(e);
+            linkTail(e);
+        }
+    }
+
+    private void linkTail(int e) {
+        mPrev[e] = mTail;
+        mNext[e] = NONE;
+        if (mTail != NONE) {
+            mNext[mTail] = e;
+        } else {
+            mHead = e;
+        }
+        mTail = e;
+    }
+
+    private void unlink(int e) {
+        final int prev = mPrev[e];
+        final int next = mNext[e];
+        if (prev != NONE) {
+            mNext[prev] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrev[next] = prev;
+        } else {
+            mTail = prev;
+        }
+    }
+
+}
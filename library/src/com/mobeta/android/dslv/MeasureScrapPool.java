@@ -0,0 +1,76 @@
+package com.mobeta.android.dslv;
+
+import android.view.View;
+
+/**
+ * Scrap Views kept for measuring offscreen items, one per adapter
+ * view type. DragSortListView passes these to
+ * <code>getView()</code> as convertViews so that measuring an
+ * offscreen item usually binds instead of inflates.
+ *
+ * Measuring is synchronous (acquire, bind, measure, release), so a
+ * view type never needs more than one scrap View. Hits and misses
+ * are counted for tuning.
+ */
+class MeasureScrapPool {
+
+    private View[] mScrap = new View[0];
+
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    /**
+     * Match the pool to the adapter's view type count. Clears the
+     * pool if the count changed.
+     */
+    public void setViewTypeCount(int count) {
+        if (count != mScrap.length) {
+            mScrap = new View[count];
+        }
+    }
+
+    /**
+     * @return The scrap View of the given type, or null if there is
+     * none (or the type is not pooled, e.g. header/footer types).
+     */
+    public View acquire(int type) {
+        if (type < 0 || type >= mScrap.length) {
+            return null;
+        }
+        final View v = mScrap[type];
+        if (v == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        mScrap[type] = null;
+        return v;
+    }
+
+    /**
+     * Keep a View for later reuse as the scrap of its type.
+     */
+    public void release(int type, View v) {
+        if (v != null && type >= 0 && type < mScrap.length) {
+            mScrap[type] = v;
+        }
+    }
+
+    /**
+     * Drop all scrap Views.
+     */
+    public void clear() {
+        for (int type = 0; type < mScrap.length; ++type) {
+            mScrap[type] = null;
+        }
+    }
+
+    public int getHitCount() {
+        return mHits;
+    }
+
+    public int getMissCount() {
+        return mMisses;
+    }
+
+}
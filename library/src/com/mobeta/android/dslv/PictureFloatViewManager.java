@@ -0,0 +1,164 @@
+package com.mobeta.android.dslv;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
+import android.graphics.Point;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+/**
+ * FloatViewManager that records the list item into a
+ * {@link Picture} instead of copying it into a Bitmap. Starting a
+ * drag costs one recording pass over the item and holds no pixel
+ * buffer; the recording is replayed wherever the floating View is
+ * drawn.
+ *
+ * Hardware-accelerated canvases cannot replay a Picture before
+ * API 23. On those, this manager hands the drag to a
+ * {@link SimpleFloatViewManager}, so the snapshot comes from its
+ * Bitmap pool (see {@link #canReplay()}).
+ */
+public class PictureFloatViewManager implements DragSortListView.FloatViewManager {
+
+    /**
+     * First platform version whose hardware canvas supports
+     * drawPicture() (Build.VERSION_CODES.M).
+     */
+    private static final int HW_PICTURE_API = 23;
+
+    private PictureView mPictureView;
+
+    private int mFloatBGColor = Color.BLACK;
+
+    private ListView mListView;
+
+    /**
+     * Used instead when the list cannot replay a Picture.
+     */
+    private SimpleFloatViewManager mFallback;
+
+    public PictureFloatViewManager(ListView lv) {
+        mListView = lv;
+    }
+
+    public void setBackgroundColor(int color) {
+        mFloatBGColor = color;
+        if (mFallback != null) {
+            mFallback.setBackgroundColor(color);
+        }
+    }
+
+    /**
+     * @return False if the ListView draws on a hardware canvas
+     * that cannot replay a Picture (API 11 to 22), in which case
+     * floating Views are Bitmap snapshots instead.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public boolean canReplay() {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || Build.VERSION.SDK_INT >= HW_PICTURE_API
+                || !mListView.isHardwareAccelerated();
+    }
+
+    /**
+     * Drop pooled Bitmaps of the fallback snapshot, if any.
+     */
+    public void clearBitmapPool() {
+        if (mFallback != null) {
+            mFallback.clearBitmapPool();
+        }
+    }
+
+    /**
+     * Records the list item currently shown at ListView
+     * <code>position</code>.
+     */
+    @Override
+    public View onCreateFloatView(int position) {
+        if (!canReplay()) {
+            if (mFallback == null) {
+                mFallback = new SimpleFloatViewManager(mListView);
+                mFallback.setBackgroundColor(mFloatBGColor);
+            }
+            return mFallback.onCreateFloatView(position);
+        }
+
+        View v = mListView.getChildAt(position + mListView.getHeaderViewsCount()
+                - mListView.getFirstVisiblePosition());
+
+        if (v == null) {
+            return null;
+        }
+
+        v.setPressed(false);
+
+        final int width = v.getWidth();
+        final int height = v.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        Picture picture = new Picture();
+        Canvas canvas = picture.beginRecording(width, height);
+        canvas.translate(-v.getScrollX(), -v.getScrollY());
+        v.draw(canvas);
+        picture.endRecording();
+
+        if (mPictureView == null) {
+            mPictureView = new PictureView(mListView.getContext());
+        }
+        mPictureView.setBackgroundColor(mFloatBGColor);
+        mPictureView.setPadding(0, 0, 0, 0);
+        mPictureView.setPicture(picture);
+        mPictureView.setLayoutParams(new ViewGroup.LayoutParams(width, height));
+
+        return mPictureView;
+    }
+
+    @Override
+    public void onDragFloatView(View floatView, Point position, Point touch) {
+        // Do nothing so we have a concrete class
+    }
+
+    /**
+     * Drops the recording.
+     */
+    @Override
+    public void onDestroyFloatView(View floatView) {
+        if (floatView instanceof PictureView) {
+            ((PictureView) floatView).setPicture(null);
+        } else if (mFallback != null) {
+            mFallback.onDestroyFloatView(floatView);
+        }
+    }
+
+    /**
+     * Draws a Picture.
+     */
+    private static class PictureView extends View {
+
+        private Picture mPicture;
+
+        public PictureView(Context context) {
+            super(context);
+        }
+
+        public void setPicture(Picture picture) {
+            mPicture = picture;
+            invalidate();
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (mPicture != null) {
+                canvas.drawPicture(mPicture);
+            }
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.mobeta.android.dslv;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.view.View;
@@ -16,10 +17,22 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
 
     private Bitmap mFloatBitmap;
 
+    /**
+     * Snapshot Bitmaps from previous drags, reused so that a drag
+     * start does not allocate a row-sized Bitmap.
+     */
+    private final FloatBitmapPool mBitmapPool = new FloatBitmapPool(2);
+
     private ImageView mImageView;
 
     private int mFloatBGColor = Color.BLACK;
 
+    private Bitmap.Config mFloatBitmapConfig = Bitmap.Config.ARGB_8888;
+
+    private float mFloatBitmapScale = 1f;
+
+    private int mFloatBitmapMaxBytes = 0;
+
     private ListView mListView;
 
     public SimpleFloatViewManager(ListView lv) {
@@ -30,6 +43,57 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
         mFloatBGColor = color;
     }
 
+    /**
+     * Set the Bitmap config of the floating View snapshot. Use
+     * {@link Bitmap.Config#RGB_565} to halve snapshot memory; the
+     * snapshot is then opaque and filled with the background color
+     * behind the item. Default is {@link Bitmap.Config#ARGB_8888}.
+     */
+    public void setFloatBitmapConfig(Bitmap.Config config) {
+        mFloatBitmapConfig = config;
+    }
+
+    public Bitmap.Config getFloatBitmapConfig() {
+        return mFloatBitmapConfig;
+    }
+
+    /**
+     * Snapshot the item at a fraction of its size. The floating
+     * View still shows the snapshot at full size, so it looks
+     * blurrier but uses scale^2 of the memory. Default is 1.
+     *
+     * @param scale A value in (0, 1].
+     */
+    public void setFloatBitmapScale(float scale) {
+        mFloatBitmapScale = Math.max(0.01f, Math.min(1f, scale));
+    }
+
+    public float getFloatBitmapScale() {
+        return mFloatBitmapScale;
+    }
+
+    /**
+     * Cap the snapshot Bitmap size. Snapshots that would exceed
+     * <code>maxBytes</code> are downscaled further until they fit.
+     *
+     * @param maxBytes Max snapshot bytes, or 0 (default) for no cap.
+     */
+    public void setFloatBitmapMaxBytes(int maxBytes) {
+        mFloatBitmapMaxBytes = Math.max(0, maxBytes);
+    }
+
+    public int getFloatBitmapMaxBytes() {
+        return mFloatBitmapMaxBytes;
+    }
+
+    /**
+     * Recycle the snapshot Bitmaps held for reuse. Call this when
+     * memory is tight; the pool refills on the next drags.
+     */
+    public void clearBitmapPool() {
+        mBitmapPool.clear();
+    }
+
     /**
      * This simple implementation creates a Bitmap copy of the
      * list item currently shown at ListView <code>position</code>.
@@ -47,19 +111,47 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
 
         v.setPressed(false);
 
-        // Create a copy of the drawing cache so that it does not get
-        // recycled by the framework when the list tries to clean up memory
-        v.setDrawingCacheEnabled(true);
-        mFloatBitmap = Bitmap.createBitmap(v.getDrawingCache());
-        v.setDrawingCacheEnabled(false);
+        final int width = v.getWidth();
+        final int height = v.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        float scale = mFloatBitmapScale;
+        if (mFloatBitmapMaxBytes > 0) {
+            final long fullBytes = (long) width * height
+                    * FloatBitmapPool.bytesPerPixel(mFloatBitmapConfig);
+            if (fullBytes * scale * scale > mFloatBitmapMaxBytes) {
+                scale = (float) Math.sqrt((double) mFloatBitmapMaxBytes / fullBytes);
+            }
+        }
+        final int bitmapWidth = Math.max(1, (int) (width * scale));
+        final int bitmapHeight = Math.max(1, (int) (height * scale));
+
+        // Draw the item straight into a (pooled) Bitmap; same result
+        // as copying the drawing cache without the two allocations
+        mFloatBitmap = mBitmapPool.acquire(bitmapWidth, bitmapHeight, mFloatBitmapConfig);
+        if (mFloatBitmapConfig == Bitmap.Config.RGB_565) {
+            // no alpha channel; bake in what the ImageView would show
+            mFloatBitmap.eraseColor(mFloatBGColor | 0xFF000000);
+        } else {
+            mFloatBitmap.eraseColor(Color.TRANSPARENT);
+        }
+        Canvas canvas = new Canvas(mFloatBitmap);
+        if (bitmapWidth != width || bitmapHeight != height) {
+            canvas.scale((float) bitmapWidth / width, (float) bitmapHeight / height);
+        }
+        canvas.translate(-v.getScrollX(), -v.getScrollY());
+        v.draw(canvas);
 
         if (mImageView == null) {
             mImageView = new ImageView(mListView.getContext());
         }
         mImageView.setBackgroundColor(mFloatBGColor);
         mImageView.setPadding(0, 0, 0, 0);
+        mImageView.setScaleType(ImageView.ScaleType.FIT_XY);
         mImageView.setImageBitmap(mFloatBitmap);
-        mImageView.setLayoutParams(new ViewGroup.LayoutParams(v.getWidth(), v.getHeight()));
+        mImageView.setLayoutParams(new ViewGroup.LayoutParams(width, height));
 
         return mImageView;
     }
@@ -71,13 +163,13 @@ public class SimpleFloatViewManager implements DragSortListView.FloatViewManager
 
     /**
      * Removes the Bitmap from the ImageView created in
-     * onCreateFloatView() and tells the system to recycle it.
+     * onCreateFloatView() and returns it to the Bitmap pool.
      */
     @Override
     public void onDestroyFloatView(View floatView) {
         ((ImageView) floatView).setImageDrawable(null);
 
-        mFloatBitmap.recycle();
+        mBitmapPool.release(mFloatBitmap);
         mFloatBitmap = null;
     }
 
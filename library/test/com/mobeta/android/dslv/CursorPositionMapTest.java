@@ -0,0 +1,286 @@
+package com.mobeta.android.dslv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs random moves and removals on a CursorPositionMap and on a
+ * plain array of Cursor positions, and compares every lookup after
+ * each step.
+ */
+public class CursorPositionMapTest {
+
+    private static final int SEQUENCES = 2000;
+
+    private static final int STEPS = 60;
+
+    /**
+     * Reference model: the Cursor position at each list position.
+     */
+    private int[] mList;
+    private int mSize;
+    private boolean[] mRemoved;
+
+    private void reset(int cursorCount) {
+        mList = new int[cursorCount];
+        for (int i = 0; i < cursorCount; i++) {
+            mList[i] = i;
+        }
+        mSize = cursorCount;
+        mRemoved = new boolean[cursorCount];
+    }
+
+    private void modelMove(int from, int to) {
+        final int moved = mList[from];
+        if (from < to) {
+            System.arraycopy(mList, from + 1, mList, from, to - from);
+        } else {
+            System.arraycopy(mList, to, mList, to + 1, from - to);
+        }
+        mList[to] = moved;
+    }
+
+    private int modelRemove(int position) {
+        final int removed = mList[position];
+        System.arraycopy(mList, position + 1, mList, position, mSize - position - 1);
+        mSize--;
+        mRemoved[removed] = true;
+        return removed;
+    }
+
+    private boolean modelIsIdentity() {
+        if (mSize != mList.length) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mList[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects visited runs and checks they are contiguous and fused.
+     */
+    private static class RunCollector implements DragSortCursorAdapter.CursorRunVisitor {
+        final int[] positions;
+        int next = 0;
+        int lastCursorEnd = -1;
+        int lastListEnd = -1;
+
+        RunCollector(int size) {
+            positions = new int[size];
+        }
+
+        @Override
+        public void visitRun(int listStart, int cursorStart, int length) {
+            assertTrue(length > 0);
+            if (listStart == lastListEnd) {
+                // adjacent runs that continue each other must be fused
+                assertFalse("unfused runs at " + listStart, cursorStart == lastCursorEnd);
+            }
+            for (int i = 0; i < length; i++) {
+                positions[listStart + i] = cursorStart + i;
+            }
+            next = listStart + length;
+            lastListEnd = next;
+            lastCursorEnd = cursorStart + length;
+        }
+    }
+
+    private void check(CursorPositionMap map, String step) {
+        final int cursorCount = mList.length;
+
+        assertEquals(step, mSize, map.size());
+        assertEquals(step, cursorCount - mSize, map.getRemovedCount());
+        assertEquals(step, modelIsIdentity(), map.isIdentity());
+
+        for (int i = 0; i < mSize; i++) {
+            assertEquals(step, mList[i], map.get(i));
+        }
+        // past the end maps to itself
+        assertEquals(step, mSize, map.get(mSize));
+
+        final int[] listOf = new int[cursorCount];
+        for (int c = 0; c < cursorCount; c++) {
+            listOf[c] = -1;
+        }
+        for (int i = 0; i < mSize; i++) {
+            listOf[mList[i]] = i;
+        }
+        for (int c = 0; c < cursorCount; c++) {
+            assertEquals(step, mRemoved[c], map.isRemoved(c));
+            assertEquals(step, listOf[c], map.indexOf(c));
+        }
+        assertEquals(step, cursorCount, map.indexOf(cursorCount));
+
+        final int[] expected = new int[mSize];
+        System.arraycopy(mList, 0, expected, 0, mSize);
+        final int[] actual = new int[mSize];
+        map.toArray(actual);
+        assertArrayEquals(step, expected, actual);
+
+        final RunCollector all = new RunCollector(mSize);
+        map.visitRuns(all, false);
+        assertEquals(step, mSize, all.next);
+        assertArrayEquals(step, expected, all.positions);
+
+        // changed runs only: everything not visited is in place
+        final RunCollector changed = new RunCollector(mSize);
+        for (int i = 0; i < mSize; i++) {
+            changed.positions[i] = i;
+        }
+        map.visitRuns(changed, true);
+        assertArrayEquals(step, expected, changed.positions);
+    }
+
+    @Test
+    public void randomMovesAndRemovesMatchModel() {
+        final Random random = new Random(1);
+        for (int sequence = 0; sequence < SEQUENCES; sequence++) {
+            final int cursorCount = random.nextInt(40);
+            reset(cursorCount);
+            final CursorPositionMap map = new CursorPositionMap(cursorCount);
+            check(map, "initial " + cursorCount);
+
+            for (int step = 0; step < STEPS && mSize > 0; step++) {
+                // mostly moves, so sequences stay long
+                if (random.nextInt(8) == 0) {
+                    final int position = random.nextInt(mSize);
+                    final String name = "seq " + sequence + " remove " + position;
+                    assertEquals(name, modelRemove(position), map.remove(position));
+                    check(map, name);
+                } else {
+                    final int from = random.nextInt(mSize);
+                    final int to = random.nextInt(mSize);
+                    modelMove(from, to);
+                    map.move(from, to);
+                    check(map, "seq " + sequence + " move " + from + " to " + to);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void undoingMovesCollapsesToIdentity() {
+        final Random random = new Random(2);
+        for (int sequence = 0; sequence < SEQUENCES; sequence++) {
+            final int cursorCount = 1 + random.nextInt(40);
+            reset(cursorCount);
+            final CursorPositionMap map = new CursorPositionMap(cursorCount);
+
+            final int moves = 1 + random.nextInt(20);
+            final int[] from = new int[moves];
+            final int[] to = new int[moves];
+            for (int i = 0; i < moves; i++) {
+                from[i] = random.nextInt(cursorCount);
+                to[i] = random.nextInt(cursorCount);
+                modelMove(from[i], to[i]);
+                map.move(from[i], to[i]);
+            }
+            for (int i = moves - 1; i >= 0; i--) {
+                modelMove(to[i], from[i]);
+                map.move(to[i], from[i]);
+                check(map, "seq " + sequence + " undo " + i);
+            }
+            assertTrue(map.isIdentity());
+        }
+    }
+
+    @Test
+    public void outOfRangeEditsAreIgnored() {
+        reset(5);
+        final CursorPositionMap map = new CursorPositionMap(5);
+        map.move(-1, 2);
+        map.move(2, 5);
+        assertEquals(-1, map.remove(5));
+        assertEquals(-1, map.remove(-1));
+        check(map, "out of range");
+        assertTrue(map.isIdentity());
+    }
+
+    /**
+     * Length of a longest strictly increasing subsequence, the
+     * quadratic way.
+     */
+    private static int longestIncreasingLength(int[] values) {
+        final int[] best = new int[values.length];
+        int longest = 0;
+        for (int i = 0; i < values.length; i++) {
+            best[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (values[j] < values[i] && best[j] + 1 > best[i]) {
+                    best[i] = best[j] + 1;
+                }
+            }
+            longest = Math.max(longest, best[i]);
+        }
+        return longest;
+    }
+
+    @Test
+    public void markLongestIncreasingMarksALongestIncreasingSubsequence() {
+        final Random random = new Random(3);
+        for (int round = 0; round < 20000; round++) {
+            final int n = random.nextInt(30);
+            final int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                // small range, so there are repeats too
+                values[i] = random.nextInt(n + 1);
+            }
+
+            final boolean[] marked = CursorPositionMap.markLongestIncreasing(values);
+            assertEquals(n, marked.length);
+            int count = 0;
+            int last = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (marked[i]) {
+                    assertTrue("not increasing at " + i, values[i] > last);
+                    last = values[i];
+                    count++;
+                }
+            }
+            assertEquals(longestIncreasingLength(values), count);
+        }
+    }
+
+    @Test
+    public void markLongestIncreasingAfterEdits() {
+        // removals alone keep the order, so every row stays
+        final CursorPositionMap map = new CursorPositionMap(10);
+        map.remove(7);
+        map.remove(0);
+        map.remove(3);
+        final int[] positions = new int[map.size()];
+        map.toArray(positions);
+        final boolean[] all = new boolean[positions.length];
+        Arrays.fill(all, true);
+        assertEquals("removals", Arrays.toString(all),
+                Arrays.toString(CursorPositionMap.markLongestIncreasing(positions)));
+
+        // one row dragged from the head to the tail: only it moved
+        final int[] dragged = { 1, 2, 3, 4, 0 };
+        assertEquals("head to tail",
+                Arrays.toString(new boolean[] { true, true, true, true, false }),
+                Arrays.toString(CursorPositionMap.markLongestIncreasing(dragged)));
+
+        final int[] reversed = { 3, 2, 1, 0 };
+        int marked = 0;
+        for (boolean stays : CursorPositionMap.markLongestIncreasing(reversed)) {
+            if (stays) {
+                marked++;
+            }
+        }
+        assertEquals(1, marked);
+        assertEquals(0, CursorPositionMap.markLongestIncreasing(new int[0]).length);
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.mobeta.android.dslv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class LongIntLruCacheTest {
+
+    private static final int CAPACITY = 64;
+
+    private static final int ROUNDS = 100000;
+
+    @Test
+    public void getReturnsLastPutValue() {
+        LongIntLruCache cache = new LongIntLruCache(CAPACITY);
+        cache.put(7L, 1);
+        cache.put(7L, 2);
+        cache.put(-7L, 3);
+
+        assertEquals(2, cache.get(7L, -1));
+        assertEquals(3, cache.get(-7L, -1));
+        assertEquals(-1, cache.get(8L, -1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LongIntLruCache cache = new LongIntLruCache(3);
+        cache.put(1L, 1);
+        cache.put(2L, 2);
+        cache.put(3L, 3);
+        // touch 1 so that 2 is the eldest
+        cache.get(1L, -1);
+        cache.put(4L, 4);
+
+        assertTrue(cache.containsKey(1L));
+        assertFalse(cache.containsKey(2L));
+        assertTrue(cache.containsKey(3L));
+        assertTrue(cache.containsKey(4L));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void removeKeepsCollidingKeysReachable() {
+        LongIntLruCache cache = new LongIntLruCache(CAPACITY);
+        // keys differing only in high bits share low hash bits often
+        // enough to exercise the probe chain back-shift
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put((long) i << 40, i);
+        }
+        for (int i = 0; i < CAPACITY; i += 2) {
+            assertTrue(cache.remove((long) i << 40));
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, cache.get((long) i << 40, -1));
+        }
+    }
+
+    @Test
+    public void fillEvictAndHitDoNotAllocate() {
+        LongIntLruCache cache = new LongIntLruCache(CAPACITY);
+        // a first measured round warms up class loading, the JIT and
+        // the counter itself
+        allocatedDuringExercise(cache);
+
+        assertEquals("allocated bytes", 0, allocatedDuringExercise(cache));
+    }
+
+    private static long allocatedDuringExercise(LongIntLruCache cache) {
+        // what reading the counter itself allocates
+        final long first = allocatedBytes();
+        final long overhead = allocatedBytes() - first;
+
+        final long before = allocatedBytes();
+        final int sum = exercise(cache);
+        final long allocated = allocatedBytes() - before - overhead;
+
+        assertTrue(sum != 0);
+        return allocated;
+    }
+
+    /**
+     * Fills the cache past capacity, evicting, and re-hits and
+     * removes recent keys.
+     */
+    private static int exercise(LongIntLruCache cache) {
+        int sum = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            cache.put(i, i);
+            sum += cache.get(i - CAPACITY / 2, 0);
+            if (cache.containsKey(i - 1) && (i & 7) == 0) {
+                cache.remove(i - 1);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Bytes allocated so far by this thread. Skips the calling test
+     * on VMs that can't tell.
+     */
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled());
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.mobeta.android.dslv;
+
+import java.util.Random;
+
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import junit.framework.TestCase;
+
+/**
+ * Times the two CheckStateShifter paths (moving runs, and one
+ * ordered rewrite) on the platform SparseBooleanArray, for moves
+ * of various lengths in lists of various sizes, about half of the
+ * items checked. CheckStateShifter.sMaxRunEntries should sit near
+ * the number of entries in range where the two cross.
+ *
+ * Run with <code>gradle connectedInstrumentTest</code>; timings are
+ * logged under the CheckStateShifterBenchmark tag.
+ */
+public class CheckStateShifterBenchmark extends TestCase {
+
+    private static final String TAG = "CheckStateShifterBenchmark";
+
+    private static final int[] sCounts = { 200, 2000, 20000 };
+    private static final int[] sDistances = { 2, 8, 32, 64, 128 };
+    private static final int sMoves = 2000;
+
+    private final CheckStateShifter mShifter = new CheckStateShifter();
+
+    private static SparseBooleanArray halfChecked(int count) {
+        final Random random = new Random(count);
+        final SparseBooleanArray states = new SparseBooleanArray();
+        for (int i = 0; i < count; i++) {
+            if (random.nextBoolean()) {
+                states.append(i, true);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Fill the last position, which a removal leaves empty.
+     */
+    private static void refill(SparseBooleanArray states, int count, Random random) {
+        if (random.nextBoolean()) {
+            states.put(count - 1, true);
+        }
+    }
+
+    /**
+     * @return Mean time per move in ns. Moves alternate direction,
+     * so the check state stays about as dense as it started.
+     */
+    private long time(SparseBooleanArray states, int count, int distance, boolean runs) {
+        final Random random = new Random(distance);
+        final long start = System.nanoTime();
+        for (int i = 0; i < sMoves; i++) {
+            final int rangeStart = random.nextInt(count - distance);
+            final int rangeEnd = rangeStart + distance + 1;
+            final int offset = (i & 1) == 0 ? -1 : 1;
+            if (runs) {
+                mShifter.rotateRuns(states, rangeStart, rangeEnd, offset);
+            } else {
+                mShifter.rewrite(states, rangeStart, rangeEnd, offset);
+            }
+        }
+        return (System.nanoTime() - start) / sMoves;
+    }
+
+    public void testBenchmarkMove() {
+        for (int count : sCounts) {
+            final SparseBooleanArray states = halfChecked(count);
+            for (int distance : sDistances) {
+                // warm up both paths
+                time(states, count, distance, true);
+                time(states, count, distance, false);
+
+                final long runs = time(states, count, distance, true);
+                final long rewrite = time(states, count, distance, false);
+                Log.i(TAG, count + " items, move " + distance + " (~" + distance / 2
+                        + " entries): runs " + runs + " ns, rewrite " + rewrite + " ns");
+            }
+        }
+    }
+
+    public void testBenchmarkRemove() {
+        for (int count : sCounts) {
+            final SparseBooleanArray states = halfChecked(count);
+            final Random random = new Random(count);
+
+            long runs = 0;
+            long rewrite = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                // the first pass warms up
+                long start = System.nanoTime();
+                for (int i = 0; i < sMoves; i++) {
+                    final int position = random.nextInt(count);
+                    states.delete(position);
+                    mShifter.rotateRuns(states, position, count, -1);
+                    refill(states, count, random);
+                }
+                runs = (System.nanoTime() - start) / sMoves;
+
+                start = System.nanoTime();
+                for (int i = 0; i < sMoves; i++) {
+                    final int position = random.nextInt(count);
+                    states.delete(position);
+                    mShifter.rewrite(states, position, Integer.MAX_VALUE, 0);
+                    refill(states, count, random);
+                }
+                rewrite = (System.nanoTime() - start) / sMoves;
+            }
+            Log.i(TAG, count + " items, remove: runs " + runs + " ns, rewrite " + rewrite
+                    + " ns");
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.mobeta.android.dslv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import android.util.SparseBooleanArray;
+import junit.framework.TestCase;
+
+/**
+ * Checks both CheckStateShifter paths against a list of booleans
+ * that is rotated the slow way.
+ */
+public class CheckStateShifterTest extends TestCase {
+
+    private static final int sRounds = 20000;
+
+    private final CheckStateShifter mShifter = new CheckStateShifter();
+
+    private static SparseBooleanArray randomStates(Random random, int count) {
+        final double checked = random.nextDouble();
+        final SparseBooleanArray states = new SparseBooleanArray();
+        for (int i = 0; i < count; i++) {
+            final double x = random.nextDouble();
+            if (x < checked) {
+                states.append(i, true);
+            } else if (x < checked + 0.1) {
+                // ListView leaves unchecked entries behind
+                states.append(i, false);
+            }
+        }
+        return states;
+    }
+
+    private static List<Boolean> toList(SparseBooleanArray states, int count) {
+        final List<Boolean> list = new ArrayList<Boolean>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(states.get(i));
+        }
+        return list;
+    }
+
+    public void testMoveMatchesRotation() {
+        final Random random = new Random(1);
+        for (int round = 0; round < sRounds; round++) {
+            // large enough to take both paths
+            final int count = 1 + random.nextInt(4 * CheckStateShifter.sMaxRunEntries);
+            final SparseBooleanArray states = randomStates(random, count);
+            final List<Boolean> expected = toList(states, count + 1);
+
+            final int from = random.nextInt(count);
+            final int to = random.nextInt(count);
+            expected.add(to, expected.remove(from));
+            mShifter.move(states, from, to);
+
+            assertEquals("move " + from + " to " + to, expected, toList(states, count + 1));
+        }
+    }
+
+    public void testRemoveMatchesShift() {
+        final Random random = new Random(2);
+        for (int round = 0; round < sRounds; round++) {
+            final int count = 1 + random.nextInt(4 * CheckStateShifter.sMaxRunEntries);
+            final SparseBooleanArray states = randomStates(random, count);
+            final int position = random.nextInt(count);
+            if (states.get(position)) {
+                states.put(position, false);
+            }
+            final List<Boolean> expected = toList(states, count + 1);
+
+            expected.remove(position);
+            expected.add(false);
+            mShifter.remove(states, position);
+
+            assertEquals("remove " + position, expected, toList(states, count + 1));
+        }
+    }
+
+    public void testRunsAndRewriteAgree() {
+        final Random random = new Random(3);
+        for (int round = 0; round < sRounds; round++) {
+            final int count = 2 + random.nextInt(64);
+            final SparseBooleanArray runs = randomStates(random, count);
+            final SparseBooleanArray rewritten = new SparseBooleanArray();
+            for (int i = 0; i < runs.size(); i++) {
+                rewritten.append(runs.keyAt(i), runs.valueAt(i));
+            }
+            final int start = random.nextInt(count - 1);
+            final int end = start + 2 + random.nextInt(count - start - 1);
+            final int offset = random.nextBoolean() ? -1 : 1;
+
+            mShifter.rotateRuns(runs, start, end, offset);
+            mShifter.rewrite(rewritten, start, end, offset);
+
+            assertEquals(toList(rewritten, count), toList(runs, count));
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.mobeta.android.dslv;
+
+import java.util.ArrayList;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * {@link DragSortCursorAdapter#getMovedListPositions()} and
+ * {@link DragSortCursorAdapter#buildSortKeyUpdates(Uri, String)} on
+ * a Cursor of ten rows with ids 100 to 109 and sort keys 10 to 100.
+ */
+public class DragSortCursorAdapterTest extends AndroidTestCase {
+
+    private static final Uri sUri = Uri.parse("content://com.mobeta.android.dslv.test/items");
+
+    private static final String SORT_KEY = "sort_key";
+
+    private static final int sRows = 10;
+
+    private static class TestAdapter extends DragSortCursorAdapter {
+        TestAdapter(Context context, Cursor c) {
+            super(context, c, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return null;
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+        }
+    }
+
+    private MatrixCursor mCursor;
+    private TestAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCursor = new MatrixCursor(new String[] { "_id", SORT_KEY });
+        for (int i = 0; i < sRows; i++) {
+            mCursor.addRow(new Object[] { 100 + i, 10.0 * (i + 1) });
+        }
+        mAdapter = new TestAdapter(getContext(), mCursor);
+    }
+
+    public void testRemovesAloneMoveNothing() {
+        mAdapter.remove(7);
+        mAdapter.remove(0);
+        mAdapter.remove(3);
+
+        assertEquals(0, mAdapter.getMovedListPositions().length);
+        assertTrue(mAdapter.buildSortKeyUpdates(sUri, SORT_KEY).isEmpty());
+    }
+
+    public void testUndoneDragMovesNothing() {
+        mAdapter.drop(1, 4);
+        assertEquals(1, mAdapter.getMovedListPositions().length);
+        assertEquals(4, mAdapter.getMovedListPositions()[0]);
+
+        mAdapter.drop(4, 1);
+        assertEquals(0, mAdapter.getMovedListPositions().length);
+    }
+
+    public void testKeyAtHead() {
+        mAdapter.drop(5, 0);
+        // before the first key (10), one step below it
+        assertSingleUpdate(105, 9.0);
+    }
+
+    public void testKeyAtTail() {
+        mAdapter.drop(0, sRows - 1);
+        // after the last key (100), one step above it
+        assertSingleUpdate(100, 101.0);
+    }
+
+    public void testKeyInMiddle() {
+        mAdapter.drop(0, 4);
+        // between the keys of rows 4 (50) and 5 (60)
+        assertSingleUpdate(100, 55.0);
+    }
+
+    public void testKeysSplitGapEvenly() {
+        // rows 8 and 9 end up together between rows 1 (20) and 2 (30)
+        mAdapter.drop(8, 2);
+        mAdapter.drop(9, 3);
+
+        final ArrayList<ContentProviderOperation> ops =
+                mAdapter.buildSortKeyUpdates(sUri, SORT_KEY);
+        assertEquals(2, ops.size());
+        assertUpdate(ops.get(0), 108, 20.0 + 10.0 / 3);
+        assertUpdate(ops.get(1), 109, 20.0 + 20.0 / 3);
+    }
+
+    public void testCursorPositionRestored() {
+        mAdapter.drop(0, 4);
+        mCursor.moveToPosition(2);
+
+        mAdapter.buildSortKeyUpdates(sUri, SORT_KEY);
+
+        assertEquals(2, mCursor.getPosition());
+    }
+
+    private void assertSingleUpdate(long id, double key) {
+        final ArrayList<ContentProviderOperation> ops =
+                mAdapter.buildSortKeyUpdates(sUri, SORT_KEY);
+        assertEquals(1, ops.size());
+        assertUpdate(ops.get(0), id, key);
+    }
+
+    private static void assertUpdate(ContentProviderOperation op, long id, double key) {
+        assertEquals(id, ContentUris.parseId(op.getUri()));
+        final double value = op.resolveValueBackReferences(new ContentProviderResult[0], 0)
+                .getAsDouble(SORT_KEY);
+        assertEquals(key, value, 1e-9);
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.mobeta.android.dslv;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+/**
+ * Times the measure/layout pass DragSortListView runs on a shuffling
+ * item each frame, where only the item's height (the gap) changes.
+ * The row is a deep tree of counting ViewGroups, so the cost of
+ * measuring and laying out the child is easy to see next to the
+ * wrapper's own.
+ *
+ * Run with <code>gradle connectedInstrumentTest</code>; timings are
+ * logged under the DragSortItemViewBenchmark tag.
+ */
+public class DragSortItemViewBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "DragSortItemViewBenchmark";
+
+    private static final int sDepth = 8;
+    private static final int sLeafHeight = 48;
+    private static final int sWidth = 480;
+    private static final int sFrames = 2000;
+
+    /**
+     * Vertical stack with two children per level down to sDepth, and
+     * fixed-height leaves. Counts every measure and layout pass in
+     * the tree.
+     */
+    private static class CountingRow extends ViewGroup {
+
+        static int sMeasures = 0;
+        static int sLayouts = 0;
+
+        CountingRow(Context context, int depth) {
+            super(context);
+            if (depth > 1) {
+                addView(new CountingRow(context, depth - 1));
+                addView(new CountingRow(context, depth - 1));
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            sMeasures++;
+            final int count = getChildCount();
+            if (count == 0) {
+                setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), sLeafHeight);
+                return;
+            }
+            int height = 0;
+            for (int i = 0; i < count; i++) {
+                final View child = getChildAt(i);
+                child.measure(widthMeasureSpec,
+                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                height += child.getMeasuredHeight();
+            }
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), height);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            sLayouts++;
+            int top = 0;
+            for (int i = 0; i < getChildCount(); i++) {
+                final View child = getChildAt(i);
+                final int height = child.getMeasuredHeight();
+                child.layout(0, top, r - l, top + height);
+                top += height;
+            }
+        }
+    }
+
+    private DragSortItemView mItem;
+    private View mRow;
+    private int mRowHeight;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRow = new CountingRow(getContext(), sDepth);
+        mItem = new DragSortItemView(getContext());
+        mItem.setGravity(Gravity.BOTTOM);
+        mItem.addView(mRow);
+        frame(ViewGroup.LayoutParams.WRAP_CONTENT);
+        mRowHeight = mItem.getMeasuredHeight();
+    }
+
+    /**
+     * One shuffle frame, as DragSortListView does it: set the item
+     * height, then measure and lay out the item.
+     */
+    private void frame(int height) {
+        final ViewGroup.LayoutParams lp = mItem.getLayoutParams();
+        lp.height = height;
+        mItem.setLayoutParams(lp);
+
+        final int heightSpec = height > 0
+                ? MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY)
+                : MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        mItem.measure(MeasureSpec.makeMeasureSpec(sWidth, MeasureSpec.EXACTLY), heightSpec);
+        mItem.layout(0, 0, sWidth, mItem.getMeasuredHeight());
+    }
+
+    /**
+     * @return Mean time per frame in ns.
+     */
+    private long runFrames(boolean forceChildPass) {
+        CountingRow.sMeasures = 0;
+        CountingRow.sLayouts = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < sFrames; i++) {
+            if (forceChildPass) {
+                mRow.requestLayout();
+            }
+            frame(mRowHeight + (i % 2 == 0 ? mRowHeight / 2 : 0));
+        }
+        return (System.nanoTime() - start) / sFrames;
+    }
+
+    public void testGapChangeSkipsChildPasses() {
+        runFrames(false);
+        assertEquals(0, CountingRow.sMeasures);
+        assertEquals(0, CountingRow.sLayouts);
+        assertEquals(mRowHeight, mRow.getHeight());
+        assertEquals(mItem.getMeasuredHeight() - mRowHeight, mRow.getTop());
+    }
+
+    public void testChildLayoutRequestRemeasures() {
+        CountingRow.sMeasures = 0;
+        mRow.requestLayout();
+        frame(mRowHeight * 2);
+        assertTrue(CountingRow.sMeasures > 0);
+        assertEquals(mRowHeight, mRow.getTop());
+    }
+
+    public void testBenchmarkGapChange() {
+        // warm up both paths
+        runFrames(true);
+        runFrames(false);
+
+        final long full = runFrames(true);
+        final int fullMeasures = CountingRow.sMeasures / sFrames;
+        final long gapOnly = runFrames(false);
+
+        Log.i(TAG, "depth " + sDepth + ": full child pass " + full + " ns/frame ("
+                + fullMeasures + " measures), gap only " + gapOnly + " ns/frame ("
+                + CountingRow.sMeasures / sFrames + " measures)");
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.mobeta.android.dslv;
+
+import android.test.AndroidTestCase;
+import android.util.SparseBooleanArray;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+
+/**
+ * Check state kept by {@link DragSortListView#moveCheckState(int, int)}
+ * and {@link DragSortListView#removeCheckState(int)} for an adapter
+ * without stable ids.
+ */
+public class DragSortListViewCheckStateTest extends AndroidTestCase {
+
+    private DragSortListView mList;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final String[] items = new String[10];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = "item " + i;
+        }
+        mList = new DragSortListView(getContext(), null);
+        mList.setAdapter(new ArrayAdapter<String>(getContext(),
+                android.R.layout.simple_list_item_1, items));
+    }
+
+    public void testSingleChoiceRemoveChecked() {
+        mList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        mList.setItemChecked(3, true);
+
+        mList.removeCheckState(3);
+
+        assertEquals(ListView.INVALID_POSITION, mList.getCheckedItemPosition());
+    }
+
+    public void testSingleChoiceRemoveBeforeChecked() {
+        mList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        mList.setItemChecked(5, true);
+
+        mList.removeCheckState(2);
+
+        assertEquals(4, mList.getCheckedItemPosition());
+    }
+
+    public void testMultipleChoiceRemove() {
+        mList.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+        mList.setItemChecked(1, true);
+        mList.setItemChecked(3, true);
+        mList.setItemChecked(4, true);
+
+        mList.removeCheckState(3);
+
+        assertChecked(1, 3);
+    }
+
+    public void testMultipleChoiceMove() {
+        mList.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+        mList.setItemChecked(2, true);
+        mList.setItemChecked(6, true);
+
+        mList.moveCheckState(2, 7);
+        assertChecked(5, 7);
+
+        mList.moveCheckState(7, 2);
+        assertChecked(2, 6);
+    }
+
+    private void assertChecked(int... positions) {
+        final SparseBooleanArray cip = mList.getCheckedItemPositions();
+        int checked = 0;
+        for (int i = 0; i < cip.size(); i++) {
+            if (cip.valueAt(i)) {
+                assertEquals(positions[checked++], cip.keyAt(i));
+            }
+        }
+        assertEquals(positions.length, checked);
+    }
+
+}